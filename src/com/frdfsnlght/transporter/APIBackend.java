@@ -21,7 +21,6 @@ import java.util.Set;
 import java.util.logging.Level;
 import com.frdfsnlght.transporter.api.RemoteException;
 import com.frdfsnlght.transporter.api.TransporterException;
-import org.bukkit.ChatColor;
 import com.frdfsnlght.transporter.api.event.RemoteRequestReceivedEvent;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -58,7 +57,7 @@ public final class APIBackend {
     /* Begin options */
 
     public static boolean getDebug() {
-        return Config.getBooleanDirect("api.debug", false);
+        return Config.getSettings().apiDebug;
     }
 
     public static void setDebug(boolean b) {
@@ -66,7 +65,7 @@ public final class APIBackend {
     }
 
     public static int getTimeout() {
-        return Config.getIntDirect("api.timeout", 5000);
+        return Config.getSettings().apiTimeout;
     }
 
     public static void setTimeout(int i) {
@@ -92,11 +91,7 @@ public final class APIBackend {
 
     public static void debug(String msg, Object ... args) {
         if (! getDebug()) return;
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        Utils.logger.log(Level.INFO, String.format("[%s] (API-DEBUG) %s", Global.pluginName, msg));
+        Log.log(Level.INFO, "(API-DEBUG) ", null, msg, args);
     }
 
     public static void invoke(String target, String method, TypeMap args, TypeMap out, Server source) throws TransporterException {
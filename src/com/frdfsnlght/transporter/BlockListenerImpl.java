@@ -47,14 +47,16 @@ public class BlockListenerImpl implements Listener {
 
     @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
     public void onBlockBreak(BlockBreakEvent event) {
-        LocalGateImpl gate = Gates.findGateForProtection(event.getBlock().getLocation());
+        GateMap.BlockRoles roles = Gates.findGateRoles(event.getBlock().getLocation());
+        if (roles == null) return;
+        LocalGateImpl gate = roles.getGate(GateMap.ROLE_BUILD);
         if (gate != null) {
             event.setCancelled(true);
             gate.onProtect(event.getBlock().getLocation());
             return;
         }
 
-        gate = Gates.findGateForScreen(event.getBlock().getLocation());
+        gate = roles.getGate(GateMap.ROLE_SCREEN);
         if (gate != null) {
             Context ctx = new Context(event.getPlayer());
             try {
@@ -113,7 +115,7 @@ public class BlockListenerImpl implements Listener {
         }
     }
 
-    @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+    // registered on demand by Listeners
     public void onBlockFromTo(BlockFromToEvent event) {
         // This prevents liquid portals from flowing out
         LocalGateImpl gate = Gates.findGateForPortal(event.getBlock().getLocation());
@@ -122,7 +124,7 @@ public class BlockListenerImpl implements Listener {
         }
     }
 
-    @EventHandler(priority = EventPriority.MONITOR)
+    // registered on demand by Listeners
     public void onBlockRedstone(BlockRedstoneEvent event) {
         LocalGateImpl g = Gates.findGateForTrigger(event.getBlock().getLocation());
         if (! (g instanceof LocalBlockGateImpl)) return;
@@ -43,7 +43,8 @@ public final class BuildableBlock {
 
     public BuildableBlock(BuildableBlock src, BlockFace direction) {
         this.type = src.type;
-        this.data = src.data;
+        // rotate() changes the data in place, so don't share it with the source
+        this.data = (src.data == null) ? null : src.data.clone();
         this.lines = src.lines;
         this.physics = src.physics;
         rotate(direction);
@@ -18,6 +18,7 @@ package com.frdfsnlght.transporter;
 import com.frdfsnlght.transporter.api.GateException;
 import com.frdfsnlght.transporter.api.event.RemotePlayerChatEvent;
 import com.frdfsnlght.transporter.api.event.RemotePlayerPMEvent;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,9 +29,11 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.util.Vector;
 
 /**
  *
@@ -42,6 +45,13 @@ public final class Chat {
 
     private static Pattern colorPattern = Pattern.compile("%(\\w+)%");
 
+    // open gates that send chat to another server, by world, or null when they need to be found again
+    private static Map<World,List<ChatRoute>> routes = null;
+
+    // what chat threads need to know about outbound chat, or null when it needs to be rebuilt
+    private static volatile ChatSnapshot snapshot = null;
+    private static boolean snapshotScheduled = false;
+
     public static boolean vaultAvailable() {
         if (! Config.getUseVaultChat()) return false;
         Plugin p = Global.plugin.getServer().getPluginManager().getPlugin("Vault");
@@ -86,40 +96,70 @@ public final class Chat {
         return b.toString();
     }
 
-    public static void send(Player player, String message, String format) {
-        Utils.debug("player '%s' sent message '%s' with format '%s'", player.getName(), message, format);
+    // called from the main thread or a chat thread
+    public static void send(final Player player, final String message, final String format) {
+        ChatSnapshot snap = snapshot;
+        if (snap == null) {
+            if (! Utils.isMainThread()) {
+                Utils.fire(new Runnable() {
+                    public void run() {
+                        send(player, message, format);
+                    }
+                });
+                return;
+            }
+            snap = snapshot = new ChatSnapshot();
+        }
 
-        Map<Server,Set<RemoteGateImpl>> servers = new HashMap<Server,Set<RemoteGateImpl>>();
+        Utils.debug("player '%s' sent message '%s' with format '%s'", player.getName(), message, format);
 
-        // add all servers that relay all chat
-        for (Server server : Servers.getAll())
-            if (server.canSendChat(message, format)) {
-                servers.put(server, null);
-                Utils.debug("can send chat message to server %s", server.getName());
+        // servers that relay all chat don't need to know where the player is
+        final Set<Server> allChatServers = new HashSet<Server>();
+        for (ServerRoute route : snap.servers)
+            if (route.canSendChat(message, format)) {
+                allChatServers.add(route.server);
+                Utils.debug("can send chat message to server %s", route.server.getName());
+                route.server.sendChat(player, message, null);
             }
 
+        if (! snap.gateRoutes) {
+            if (allChatServers.isEmpty())
+                Utils.debug("no servers to send chat message to");
+            return;
+        }
+
+        // gate proximity needs the player's position, which only the main thread may read
+        if (Utils.isMainThread())
+            sendThroughGates(player, message, format, allChatServers);
+        else
+            Utils.fire(new Runnable() {
+                public void run() {
+                    sendThroughGates(player, message, format, allChatServers);
+                }
+            });
+    }
+
+    private static void sendThroughGates(Player player, String message, String format, Set<Server> allChatServers) {
+        Map<Server,Set<RemoteGateImpl>> servers = new HashMap<Server,Set<RemoteGateImpl>>();
+
         Location loc = player.getLocation();
         RemoteGateImpl destGate;
         Server destServer;
-        for (LocalGateImpl gate : Gates.getLocalGates()) {
-            if (gate.isOpen() && gate.canSendChat(message, format) && gate.isInChatSendProximity(loc)) {
-                try {
-                    GateImpl dg = gate.getDestinationGate();
-                    if (! (dg instanceof RemoteGateImpl)) continue;
-                    destGate = (RemoteGateImpl)dg;
-                    destServer = (Server)destGate.getRemoteServer();
-                    if (servers.containsKey(destServer)) {
-                        if (servers.get(destServer) == null) continue;
-                    } else
-                        servers.put(destServer, new HashSet<RemoteGateImpl>());
-                    servers.get(destServer).add(destGate);
-                    Utils.debug("can send chat message to server %s through gate %s", destServer.getName(), destGate.getFullName());
-                } catch (GateException e) {}
-            }
+        for (ChatRoute route : getRoutes(loc.getWorld())) {
+            if (! route.gate.isInChatSendProximity(loc)) continue;
+            if (! route.gate.canSendChat(message, format)) continue;
+            destGate = route.destGate;
+            destServer = route.destServer;
+            if (allChatServers.contains(destServer)) continue;
+            if (! servers.containsKey(destServer))
+                servers.put(destServer, new HashSet<RemoteGateImpl>());
+            servers.get(destServer).add(destGate);
+            Utils.debug("can send chat message to server %s through gate %s", destServer.getName(), destGate.getFullName());
         }
 
         if (servers.isEmpty()) {
-            Utils.debug("no servers to send chat message to");
+            if (allChatServers.isEmpty())
+                Utils.debug("no servers to send chat message to");
             return;
         }
         for (Server server : servers.keySet()) {
@@ -127,21 +167,81 @@ public final class Chat {
         }
     }
 
-    public static void receive(Server fromServer, RemotePlayerImpl player, String message, List<String> toGates) {
-        Player[] players = (Player[]) Global.plugin.getServer().getOnlinePlayers().toArray();
+    // shared by gates, servers and chat snapshots, safe on any thread
+    static boolean matchesSendFilters(Pattern messagePattern, Pattern formatPattern, String message, String format) {
+        if (message == null) return false;
+        if (messagePattern != null)
+            if (! messagePattern.matcher(message).find()) return false;
+        if (formatPattern != null) {
+            if (format == null) return false;
+            if (! formatPattern.matcher(format).find()) return false;
+        }
+        return true;
+    }
+
+    // called from the main thread whenever a gate opens, closes, changes its
+    // destination or its chat settings, gates come and go, or a server's chat
+    // settings change
+    public static void invalidateRoutes() {
+        routes = null;
+        snapshot = null;
+        if (snapshotScheduled) return;
+        snapshotScheduled = true;
+        // rebuild once things settle down rather than after every change
+        int task = Utils.fire(new Runnable() {
+            public void run() {
+                snapshotScheduled = false;
+                if (snapshot == null)
+                    snapshot = new ChatSnapshot();
+            }
+        });
+        if (task == -1) snapshotScheduled = false;
+    }
+
+    private static Map<World,List<ChatRoute>> getRoutes() {
+        if (routes == null) {
+            routes = new HashMap<World,List<ChatRoute>>();
+            for (LocalGateImpl gate : Gates.getLocalGates()) {
+                if ((! gate.isOpen()) || (! gate.getSendChat())) continue;
+                GateImpl dg;
+                try {
+                    dg = gate.getDestinationGate();
+                } catch (GateException e) {
+                    continue;
+                }
+                if (! (dg instanceof RemoteGateImpl)) continue;
+                List<ChatRoute> worldRoutes = routes.get(gate.getWorld());
+                if (worldRoutes == null) {
+                    worldRoutes = new ArrayList<ChatRoute>();
+                    routes.put(gate.getWorld(), worldRoutes);
+                }
+                worldRoutes.add(new ChatRoute(gate, (RemoteGateImpl)dg));
+            }
+        }
+        return routes;
+    }
+
+    private static List<ChatRoute> getRoutes(World world) {
+        List<ChatRoute> worldRoutes = getRoutes().get(world);
+        if (worldRoutes == null) return Collections.emptyList();
+        return worldRoutes;
+    }
 
+    public static void receive(Server fromServer, RemotePlayerImpl player, String message, List<String> toGates) {
         Set<Player> playersToReceive = new HashSet<Player>();
         if ((toGates == null) && fromServer.canReceiveChat(message))
-            Collections.addAll(playersToReceive, players);
+            playersToReceive.addAll(Global.plugin.getServer().getOnlinePlayers());
         else if ((toGates != null) && (! toGates.isEmpty())) {
             for (String gateName : toGates) {
                 GateImpl g = Gates.get(gateName);
                 if ((g == null) || (! (g instanceof LocalGateImpl))) continue;
                 LocalGateImpl gate = (LocalGateImpl)g;
                 if (! gate.canReceiveChat(message)) continue;
-                for (Player p : players) {
-                    if (gate.isInChatReceiveProximity(p.getLocation()))
-                        playersToReceive.add(p);
+                if (gate.getReceiveChatDistance() <= 0)
+                    playersToReceive.addAll(gate.getWorld().getPlayers());
+                else {
+                    Vector center = gate.getCenter();
+                    Players.addNearby(gate.getWorld(), center.getX(), center.getY(), center.getZ(), gate.getReceiveChatDistance(), playersToReceive);
                 }
             }
         } else {
@@ -210,4 +310,42 @@ public final class Chat {
         return null;
     }
 
+    // Built on the main thread and never changed afterwards, so chat threads
+    // can use it without locking.
+    private static final class ChatSnapshot {
+        final List<ServerRoute> servers = new ArrayList<ServerRoute>();
+        final boolean gateRoutes;
+        ChatSnapshot() {
+            for (Server server : Servers.getAll())
+                if (server.getSendChat())
+                    servers.add(new ServerRoute(server));
+            gateRoutes = ! getRoutes().isEmpty();
+        }
+    }
+
+    private static final class ServerRoute {
+        final Server server;
+        final Pattern sendChatPattern;
+        final Pattern sendChatFormatPattern;
+        ServerRoute(Server server) {
+            this.server = server;
+            sendChatPattern = server.getSendChatPattern();
+            sendChatFormatPattern = server.getSendChatFormatPattern();
+        }
+        boolean canSendChat(String message, String format) {
+            return matchesSendFilters(sendChatPattern, sendChatFormatPattern, message, format);
+        }
+    }
+
+    private static final class ChatRoute {
+        final LocalGateImpl gate;
+        final RemoteGateImpl destGate;
+        final Server destServer;
+        ChatRoute(LocalGateImpl gate, RemoteGateImpl destGate) {
+            this.gate = gate;
+            this.destGate = destGate;
+            destServer = (Server)destGate.getRemoteServer();
+        }
+    }
+
 }
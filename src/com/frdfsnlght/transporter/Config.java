@@ -33,11 +33,14 @@ public final class Config {
 
     private static final Set<String> OPTIONS = new HashSet<String>();
     private static final Options options;
-    private static TypeMap config = null;
+    // always frozen, replaced on every change so readers never need to lock
+    private static volatile TypeMap config = null;
+    private static volatile Settings settings = new Settings(new TypeMap().freeze());
 
     static {
         OPTIONS.add("debug");
         OPTIONS.add("deleteDebugFile");
+        OPTIONS.add("debugBufferSize");
         OPTIONS.add("allowBuild");
         OPTIONS.add("allowLinkLocal");
         OPTIONS.add("allowLinkWorld");
@@ -70,6 +73,8 @@ public final class Config {
         OPTIONS.add("exportedGatesFile");
         OPTIONS.add("worldLoadDelay");
         OPTIONS.add("showGatesSavedMessage");
+        OPTIONS.add("gateSaveInterval");
+        OPTIONS.add("gateStorage");
         OPTIONS.add("httpProxyHost");
         OPTIONS.add("httpProxyType");
         OPTIONS.add("httpProxyPort");
@@ -82,6 +87,11 @@ public final class Config {
         options = new Options(Config.class, OPTIONS, "trp", new OptionsListener() {
             public void onOptionSet(Context ctx, String name, String value) {
                 ctx.sendLog("global option '%s' set to '%s'", name, value);
+                if (name.equals("exportedGatesFile"))
+                    GateExporter.reset();
+                else if (name.equals("gateStorage"))
+                    // rewrite every gate so they all move to the new format
+                    Gates.saveAll(ctx);
             }
             public String getOptionPermission(Context ctx, String name) {
                 return name;
@@ -96,10 +106,10 @@ public final class Config {
 
     public static void load(Context ctx) {
         File confFile = getConfigFile();
-        config = new TypeMap(confFile);
-        config.load();
+        TypeMap conf = new TypeMap(confFile);
+        conf.load();
 
-        int version = config.getInt("configVersion", -9999);
+        int version = conf.getInt("configVersion", -9999);
 
         /*
         if (version == -9999) {
@@ -127,7 +137,9 @@ public final class Config {
         else
         */
 
-        config.remove("global.debugURL");
+        conf.remove("global.debugURL");
+        config = conf.freeze();
+        settings = new Settings(config);
 
         if (version < CONFIG_VERSION) {
             // do conversion here
@@ -164,6 +176,19 @@ public final class Config {
             ctx.sendLog("saved configuration");
     }
 
+    /**
+     * Returns the current configuration. The returned map is frozen, so it
+     * can be held onto and read from any thread; later changes to the
+     * configuration are not reflected in it.
+     */
+    public static TypeMap getSnapshot() {
+        return config;
+    }
+
+    public static Settings getSettings() {
+        return settings;
+    }
+
     public static String getStringDirect(String path) {
         return config.getString(path, null);
     }
@@ -195,9 +220,10 @@ public final class Config {
     public static void setPropertyDirect(String path, Object v) {
         if (config == null) return;
         if (v == null)
-            config.remove(path);
+            config = config.without(path);
         else
-            config.set(path, v);
+            config = config.with(path, v);
+        settings = new Settings(config);
     }
 
 
@@ -205,11 +231,11 @@ public final class Config {
     /* Begin options */
 
     public static boolean getDebug() {
-        return config.getBoolean("global.debug", false);
+        return settings.debug;
     }
 
     public static void setDebug(boolean b) {
-        config.set("global.debug", b);
+        setPropertyDirect("global.debug", b);
     }
 
     public static boolean getDeleteDebugFile() {
@@ -217,7 +243,17 @@ public final class Config {
     }
 
     public static void setDeleteDebugFile(boolean b) {
-        config.set("global.deleteDebugFile", b);
+        setPropertyDirect("global.deleteDebugFile", b);
+    }
+
+    public static int getDebugBufferSize() {
+        return settings.debugBufferSize;
+    }
+
+    public static void setDebugBufferSize(int i) {
+        if ((i < 0) || (i > 100000))
+            throw new IllegalArgumentException("debugBufferSize must be between 0 and 100000");
+        setPropertyDirect("global.debugBufferSize", i);
     }
 
     public static boolean getAllowBuild() {
@@ -225,7 +261,7 @@ public final class Config {
     }
 
     public static void setAllowBuild(boolean b) {
-        config.set("global.allowBuild", b);
+        setPropertyDirect("global.allowBuild", b);
     }
 
     public static boolean getAllowLinkLocal() {
@@ -233,7 +269,7 @@ public final class Config {
     }
 
     public static void setAllowLinkLocal(boolean b) {
-        config.set("global.allowLinkLocal", b);
+        setPropertyDirect("global.allowLinkLocal", b);
     }
 
     public static boolean getAllowLinkWorld() {
@@ -241,7 +277,7 @@ public final class Config {
     }
 
     public static void setAllowLinkWorld(boolean b) {
-        config.set("global.allowLinkWorld", b);
+        setPropertyDirect("global.allowLinkWorld", b);
     }
 
     public static boolean getAllowLinkServer() {
@@ -249,7 +285,7 @@ public final class Config {
     }
 
     public static void setAllowLinkServer(boolean b) {
-        config.set("global.allowLinkServer", b);
+        setPropertyDirect("global.allowLinkServer", b);
     }
 
     public static boolean getAllowSignCreation() {
@@ -257,7 +293,7 @@ public final class Config {
     }
 
     public static void setAllowSignCreation(boolean b) {
-        config.set("global.allowSignCreation", b);
+        setPropertyDirect("global.allowSignCreation", b);
     }
 
     public static boolean getAutoAddWorlds() {
@@ -265,7 +301,7 @@ public final class Config {
     }
 
     public static void setAutoAddWorlds(boolean b) {
-        config.set("global.autoAddWorlds", b);
+        setPropertyDirect("global.autoAddWorlds", b);
     }
 
     public static boolean getAutoLoadWorlds() {
@@ -273,39 +309,39 @@ public final class Config {
     }
 
     public static void setAutoLoadWorlds(boolean b) {
-        config.set("global.autoLoadWorlds", b);
+        setPropertyDirect("global.autoLoadWorlds", b);
     }
 
     public static int getGateLockExpiration() {
-        return config.getInt("global.gateLockExpiration", 2000);
+        return settings.gateLockExpiration;
     }
 
     public static void setGateLockExpiration(int i) {
         if (i < 500)
             throw new IllegalArgumentException("gateLockExpiration must be at least 500");
-        config.set("global.gateLockExpiration", i);
+        setPropertyDirect("global.gateLockExpiration", i);
     }
 
     public static int getArrivalWindow() {
-        return config.getInt("global.arrivalWindow", 20000);
+        return settings.arrivalWindow;
     }
 
     public static void setArrivalWindow(int i) {
         if (i < 1000)
             throw new IllegalArgumentException("arrivalWindow must be at least 1000");
-        config.set("global.arrivalWindow", i);
+        setPropertyDirect("global.arrivalWindow", i);
     }
 
     public static boolean getUseGatePermissions() {
-        return config.getBoolean("global.useGatePermissions", false);
+        return settings.useGatePermissions;
     }
 
     public static void setUseGatePermissions(boolean b) {
-        config.set("global.useGatePermissions", b);
+        setPropertyDirect("global.useGatePermissions", b);
     }
 
     public static String getServerChatFormat() {
-        return config.getString("global.serverChatFormat", "<%player%/%world%@%server%> %message%");
+        return settings.serverChatFormat;
     }
 
     public static void setServerChatFormat(String s) {
@@ -418,7 +454,7 @@ public final class Config {
     }
 
     public static void setUseVaultEconomy(boolean b) {
-        config.set("global.useVaultEconomy", b);
+        setPropertyDirect("global.useVaultEconomy", b);
     }
 
     public static boolean getUseRegisterEconomy() {
@@ -426,7 +462,7 @@ public final class Config {
     }
 
     public static void setUseRegisterEconomy(boolean b) {
-        config.set("global.useRegisterEconomy", b);
+        setPropertyDirect("global.useRegisterEconomy", b);
     }
 
     public static boolean getUseDynmap() {
@@ -434,7 +470,7 @@ public final class Config {
     }
 
     public static void setUseDynmap(boolean b) {
-        config.set("global.useDynmap", b);
+        setPropertyDirect("global.useDynmap", b);
     }
 
     public static boolean getUseVaultPermissions() {
@@ -442,7 +478,7 @@ public final class Config {
     }
 
     public static void setUseVaultPermissions(boolean b) {
-        config.set("global.useVaultPermissions", b);
+        setPropertyDirect("global.useVaultPermissions", b);
     }
 
     public static boolean getUsePermissions() {
@@ -450,7 +486,7 @@ public final class Config {
     }
 
     public static void setUsePermissions(boolean b) {
-        config.set("global.usePermissions", b);
+        setPropertyDirect("global.usePermissions", b);
     }
 
     public static boolean getUsePermissionsEx() {
@@ -458,7 +494,7 @@ public final class Config {
     }
 
     public static void setUsePermissionsEx(boolean b) {
-        config.set("global.usePermissionsEx", b);
+        setPropertyDirect("global.usePermissionsEx", b);
     }
 
     public static boolean getUseVaultChat() {
@@ -466,7 +502,7 @@ public final class Config {
     }
 
     public static void setUseVaultChat(boolean b) {
-        config.set("global.useVaultChat", b);
+        setPropertyDirect("global.useVaultChat", b);
     }
 
     public static boolean getUseTabAPI() {
@@ -474,15 +510,15 @@ public final class Config {
     }
 
     public static void setUseTabAPI(boolean b) {
-        config.set("global.useTabAPI", b);
+        setPropertyDirect("global.useTabAPI", b);
     }
     
     public static boolean getHideLocalLoginLeaveMessage() {
-        return config.getBoolean("global.hideLocalLoginLeaveMessage", true);
+        return settings.hideLocalLoginLeaveMessage;
     }
 
     public static void setHideLocalLoginLeaveMessage(boolean b) {
-        config.set("global.hideLocalLoginLeaveMessage", b);
+        setPropertyDirect("global.hideLocalLoginLeaveMessage", b);
     }
 
     public static String getDynmapMarkerSetLabel() {
@@ -520,6 +556,29 @@ public final class Config {
         setPropertyDirect("global.showGatesSavedMessages", b);
     }
 
+    public static int getGateSaveInterval() {
+        return settings.gateSaveInterval;
+    }
+
+    public static void setGateSaveInterval(int i) {
+        if (i < 0)
+            throw new IllegalArgumentException("gateSaveInterval must be at least 0");
+        setPropertyDirect("global.gateSaveInterval", i);
+    }
+
+    public static String getGateStorage() {
+        return settings.gateStorage;
+    }
+
+    public static void setGateStorage(String s) {
+        if (s != null) {
+            s = s.toLowerCase();
+            if ((! s.equals("yaml")) && (! s.equals("log")))
+                throw new IllegalArgumentException("gateStorage must be 'yaml' or 'log'");
+        }
+        setPropertyDirect("global.gateStorage", s);
+    }
+
     public static String getHttpProxyHost() {
         return config.getString("global.httpProxy.host", null);
     }
@@ -552,7 +611,7 @@ public final class Config {
     public static void setHttpProxyPort(int i) {
         if ((i < 1) || (i > 65535))
             throw new IllegalArgumentException("proxy port is invalid");
-        config.set("global.httpProxy.port", i);
+        setPropertyDirect("global.httpProxy.port", i);
     }
 
     public static String getHttpProxyUser() {
@@ -122,12 +122,14 @@ public class Design {
     private Map<String,String> replaceItems = new HashMap<String,String>();
 
     private List<Pattern> buildWorlds = null;
+    // results of matching world names against buildWorlds
+    private final Map<String,Boolean> buildableWorlds = new HashMap<String,Boolean>();
     private List<DesignBlock> blocks = null;
+    private final Map<BlockFace,TransformedDesign.Rotation> rotations = new EnumMap<BlockFace,TransformedDesign.Rotation>(BlockFace.class);
 
     private int sizeX, sizeY, sizeZ;    // calculated
 
-    @SuppressWarnings("unchecked")
-    public Design(File file) throws DesignException, BlockException {
+    private static TypeMap loadFile(File file) throws DesignException {
         if (! file.exists())
             throw new DesignException("%s not found", file.getAbsolutePath());
         if (! file.isFile())
@@ -136,7 +138,15 @@ public class Design {
             throw new DesignException("unable to read %s", file.getAbsoluteFile());
         TypeMap conf = new TypeMap(file);
         conf.load();
+        return conf;
+    }
+
+    public Design(File file) throws DesignException, BlockException {
+        this(loadFile(file));
+    }
 
+    @SuppressWarnings("unchecked")
+    public Design(TypeMap conf) throws DesignException, BlockException {
         name = conf.getString("name");
         attribution = conf.getString("attribution");
         enabled = conf.getBoolean("enabled", true);
@@ -373,6 +383,9 @@ public class Design {
 //            throw new DesignException("must have at least one switch block because multiLink is true");
         if (spawnCount == 0)
             throw new DesignException("must have at least one spawn block");
+
+        for (BlockFace direction : new BlockFace[] { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST })
+            rotations.put(direction, new TransformedDesign.Rotation(blocks, direction));
     }
 
     public void dump(Context ctx) {
@@ -388,6 +401,10 @@ public class Design {
         return name + ((attribution == null) ? "" : (" " + attribution));
     }
 
+    TransformedDesign.Rotation getRotation(BlockFace direction) {
+        return rotations.get(direction);
+    }
+
     public List<DesignBlock> getBlocks() {
         return blocks;
     }
@@ -672,7 +689,7 @@ public class Design {
         return countdownCancelFormat;
     }
 
-    private Collection<DesignBlock> getScreenBlocks() {
+    Collection<DesignBlock> getScreenBlocks() {
         Collection<DesignBlock> screens = new ArrayList<DesignBlock>();
         for (DesignBlock db : blocks)
             if (db.getDetail().isScreen())
@@ -688,9 +705,17 @@ public class Design {
 
     public boolean isBuildableInWorld(World world) {
         String worldName = world.getName();
-        for (Pattern pattern : buildWorlds)
-            if (pattern.matcher(worldName).matches()) return true;
-        return false;
+        Boolean buildable = buildableWorlds.get(worldName);
+        if (buildable == null) {
+            buildable = false;
+            for (Pattern pattern : buildWorlds)
+                if (pattern.matcher(worldName).matches()) {
+                    buildable = true;
+                    break;
+                }
+            buildableWorlds.put(worldName, buildable);
+        }
+        return buildable;
     }
 
     public Map<Material,Integer> getInventoryBlocks() {
@@ -712,14 +737,7 @@ public class Design {
 
         // must be in a buildable world
         World world = location.getWorld();
-        String worldName = world.getName();
-        boolean matched = false;
-        for (Pattern pattern : buildWorlds)
-            if (pattern.matcher(worldName).matches()) {
-                matched = true;
-                break;
-            }
-        if (! matched)
+        if (! isBuildableInWorld(world))
             throw new DesignException("unable to build in this world");
 
         DesignBlock insertBlock = getInsertBlock();
@@ -765,13 +783,8 @@ public class Design {
         TransformedDesign tDesign = new TransformedDesign(this, location, direction);
 
         // check blocks that will be replaced (can't build in bedrock)
-        while (tDesign.hasMoreBlocks()) {
-            GateBlock gb = tDesign.nextBlock();
-            if (! gb.getDetail().isBuildable()) continue;
-            if (gb.getLocation().getBlock().getType() == Material.BEDROCK)
-                throw new DesignException("unable to build in bedrock");
-        }
-        tDesign.reset();
+        if (tDesign.buildsOver(Material.BEDROCK))
+            throw new DesignException("unable to build in bedrock");
 
         // build it!
         List<SavedBlock> savedBlocks = new ArrayList<SavedBlock>();
@@ -791,77 +804,63 @@ public class Design {
         Utils.debug("checking design '%s'", name);
 
         // must be in a buildable world
-        World world = location.getWorld();
-        String worldName = world.getName();
-        boolean matched = false;
-        for (Pattern pattern : buildWorlds)
-            if (pattern.matcher(worldName).matches()) {
-                matched = true;
-                break;
-            }
-        if (! matched) return null;
+        if (! isBuildableInWorld(location.getWorld())) return null;
         Utils.debug("world is OK");
 
+        // iterate over each screen trying to find a match with what's around the location
+        for (DesignBlock screenBlock : getScreenBlocks()) {
+            DesignMatch match = matchScreen(location, screenBlock);
+            if (match != null) return match;
+        }
+        Utils.debug("didn't match design");
+        return null;
+    }
+
+    // Attempts to match the blocks around the given location with this design,
+    // assuming the location is that of the given screen. The caller has already
+    // checked the world.
+    DesignMatch matchScreen(Location location, DesignBlock screenBlock) {
+        World world = location.getWorld();
         Block targetBlock = location.getBlock();
-        BlockFace direction = null;
-        TransformedDesign tDesign = null;
-        matched = false;
+        location = targetBlock.getLocation();
+        BlockFace direction = screenBlock.getDetail().getBuildBlock().matchTypeAndDirection(targetBlock);
+        if (direction == null) return null;
 
-        // iterate over each screen trying to find a match with what's around the targetBlock
-        for (DesignBlock screenBlock : getScreenBlocks()) {
-            location = targetBlock.getLocation();
-            direction = screenBlock.getDetail().getBuildBlock().matchTypeAndDirection(targetBlock);
-            if (direction == null) continue;
-
-            Utils.debug("screen %s,%s,%s", screenBlock.getX(), screenBlock.getY(), screenBlock.getZ());
-            Utils.debug("direction=%s", direction);
-
-            // adjust location to represent 0,0,0 of design blocks
-            switch (direction) {
-                case NORTH:
-                    translate(location, -screenBlock.getX(), -screenBlock.getY(), -screenBlock.getZ());
-//                    translate(location, screenBlock.getZ(), -screenBlock.getY(), -screenBlock.getX());
-                    break;
-                case EAST:
-                    translate(location, screenBlock.getZ(), -screenBlock.getY(), -screenBlock.getX());
-//                    translate(location, screenBlock.getX(), -screenBlock.getY(), screenBlock.getZ());
-                    break;
-                case SOUTH:
-                    translate(location, screenBlock.getX(), -screenBlock.getY(), screenBlock.getZ());
-//                    translate(location, -screenBlock.getZ(), -screenBlock.getY(), screenBlock.getX());
-                    break;
-                case WEST:
-                    translate(location, -screenBlock.getZ(), -screenBlock.getY(), screenBlock.getX());
-//                    translate(location, -screenBlock.getX(), -screenBlock.getY(), -screenBlock.getZ());
-                    break;
-                default:
-                    continue;
-            }
-            Utils.debug("matched a screen");
-            Utils.debug("direction=%s", direction);
-
-            tDesign = new TransformedDesign(this, location, direction);
-
-            // check the target blocks to make sure they match the design
-            matched = true;
-            while (tDesign.hasMoreBlocks()) {
-                GateBlock gb = tDesign.nextBlock();
-                if (gb.getDetail().isMatchable() &&
-                    (! gb.getDetail().getBuildBlock().matches(gb.getLocation()))) {
-                    matched = false;
-                    break;
-                }
-            }
-            tDesign.reset();
-            if (matched) break;
-            Utils.debug("blocks don't match");
+        Utils.debug("screen %s,%s,%s", screenBlock.getX(), screenBlock.getY(), screenBlock.getZ());
+        Utils.debug("direction=%s", direction);
+
+        // adjust location to represent 0,0,0 of design blocks
+        switch (direction) {
+            case NORTH:
+                translate(location, -screenBlock.getX(), -screenBlock.getY(), -screenBlock.getZ());
+//                translate(location, screenBlock.getZ(), -screenBlock.getY(), -screenBlock.getX());
+                break;
+            case EAST:
+                translate(location, screenBlock.getZ(), -screenBlock.getY(), -screenBlock.getX());
+//                translate(location, screenBlock.getX(), -screenBlock.getY(), screenBlock.getZ());
+                break;
+            case SOUTH:
+                translate(location, screenBlock.getX(), -screenBlock.getY(), screenBlock.getZ());
+//                translate(location, -screenBlock.getZ(), -screenBlock.getY(), screenBlock.getX());
+                break;
+            case WEST:
+                translate(location, -screenBlock.getZ(), -screenBlock.getY(), screenBlock.getX());
+//                translate(location, -screenBlock.getX(), -screenBlock.getY(), -screenBlock.getZ());
+                break;
+            default:
+                return null;
         }
+        Utils.debug("matched a screen");
+        Utils.debug("direction=%s", direction);
 
-        if (! matched) {
-            Utils.debug("didn't match design");
+        TransformedDesign tDesign = new TransformedDesign(this, location, direction);
+
+        // check the target blocks to make sure they match the design, stopping at the first that doesn't
+        if (! tDesign.matches()) {
+            Utils.debug("blocks don't match");
             return null;
         }
-        Utils.debug("matched design!");
+        Utils.debug("matched design '%s'!", name);
 
         return new DesignMatch(this, tDesign, world, direction);
     }
@@ -21,6 +21,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 
 /**
@@ -30,14 +33,20 @@ import org.bukkit.entity.Player;
 public final class Designs {
 
     private static final Map<String,Design> designs = new HashMap<String,Design>();
+    // screens of creatable designs by their block type
+    private static final Map<Material,List<ScreenCandidate>> screens = new HashMap<Material,List<ScreenCandidate>>();
     private static Map<String,List<SavedBlock>> buildUndos = new HashMap<String,List<SavedBlock>>();
 
     public static void load(Context ctx) {
         designs.clear();
+        screens.clear();
         File designsFolder = new File(Global.plugin.getDataFolder(), "designs");
-        for (File designFile : Utils.listYAMLFiles(designsFolder)) {
+        File[] designFiles = Utils.listYAMLFiles(designsFolder);
+        if (designFiles == null) designFiles = new File[0];
+        for (ParallelLoader.Result result : ParallelLoader.load(designFiles)) {
+            File designFile = result.getFile();
             try {
-                Design design = new Design(designFile);
+                Design design = new Design(result.getConf());
                 if (! design.isEnabled()) continue;
                 try {
                     add(design);
@@ -59,6 +68,17 @@ public final class Designs {
         if (designs.containsKey(design.getName()))
             throw new DesignException("a design with the same type already exists");
         designs.put(design.getName(), design);
+        if (! design.isCreatable()) return;
+        for (DesignBlock db : design.getScreenBlocks()) {
+            BuildableBlock bb = db.getDetail().getBuildBlock();
+            if ((bb == null) || (! bb.hasType())) continue;
+            List<ScreenCandidate> candidates = screens.get(bb.getType());
+            if (candidates == null) {
+                candidates = new ArrayList<ScreenCandidate>();
+                screens.put(bb.getType(), candidates);
+            }
+            candidates.add(new ScreenCandidate(design, db));
+        }
     }
 
     public static Design get(String name) {
@@ -97,9 +117,14 @@ public final class Designs {
     // Attempts to match the blocks around the given location with a design.
     // The location should be the location of a design's screen.
     public static DesignMatch matchScreen(Location location) {
-        for (Design design : designs.values()) {
-            if (! design.isCreatable()) continue;
-            DesignMatch match = design.matchScreen(location);
+        Block block = location.getBlock();
+        List<ScreenCandidate> candidates = screens.get(block.getType());
+        if (candidates == null) return null;
+        World world = location.getWorld();
+        for (ScreenCandidate candidate : candidates) {
+            if (! candidate.design.isBuildableInWorld(world)) continue;
+            Utils.debug("checking design '%s'", candidate.design.getName());
+            DesignMatch match = candidate.design.matchScreen(location, candidate.screen);
             if (match != null) return match;
         }
         return null;
@@ -114,4 +139,13 @@ public final class Designs {
         buildUndos.remove(player.getUniqueId().toString());
     }
 
+    private static final class ScreenCandidate {
+        final Design design;
+        final DesignBlock screen;
+        ScreenCandidate(Design design, DesignBlock screen) {
+            this.design = design;
+            this.screen = screen;
+        }
+    }
+
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import com.frdfsnlght.transporter.api.TypeMap;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bukkit.util.Vector;
+
+/**
+ * Maintains the gates file read by the Overviewer add-on.
+ * <p>
+ * Each local gate's JSON object is encoded when the gate is added, changed
+ * or renamed, so a change only costs the encoding of that one gate. Writes
+ * are throttled, happen on a worker thread, and replace the file
+ * atomically so the map never reads a partial document.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class GateExporter {
+
+    // minimum time between writes, in millis
+    private static final long WRITE_INTERVAL = 5000;
+
+    // encoded gates by full name, only touched on the main thread
+    private static final Map<String,String> entries = new HashMap<String,String>();
+    private static boolean populated = false;
+    private static boolean writeScheduled = false;
+    private static long lastWriteTime = 0;
+
+    private static final AtomicLong writeSequence = new AtomicLong();
+    private static long writtenSequence = 0;
+    private static final Object writeLock = new Object();
+
+    // called from the main thread
+
+    public static void update(LocalGateImpl gate) {
+        // gates still being built or loaded aren't ours to export yet
+        if (Gates.get(gate.getFullName()) != gate) return;
+        if (! populate()) return;
+        entries.put(gate.getFullName(), encode(gate));
+        scheduleWrite();
+    }
+
+    public static void remove(String fullName) {
+        if (! populate()) return;
+        if (entries.remove(fullName) != null)
+            scheduleWrite();
+    }
+
+    public static void rename(String oldFullName, LocalGateImpl gate) {
+        if (! populate()) return;
+        entries.remove(oldFullName);
+        entries.put(gate.getFullName(), encode(gate));
+        scheduleWrite();
+    }
+
+    // drops everything and starts over, used when the file or the set of gates changes wholesale
+    public static void reset() {
+        entries.clear();
+        populated = false;
+        if (populate())
+            scheduleWrite();
+    }
+
+    // returns false if exporting is disabled
+    private static boolean populate() {
+        if (Config.getExportedGatesFile() == null) return false;
+        if (populated) return true;
+        for (LocalGateImpl gate : Gates.getLocalGates())
+            entries.put(gate.getFullName(), encode(gate));
+        populated = true;
+        return true;
+    }
+
+    private static String encode(LocalGateImpl gate) {
+        TypeMap m = new TypeMap();
+        m.put("name", gate.getName());
+        m.put("world", gate.getWorld().getName());
+        Vector center = gate.getCenter();
+        m.put("x", center.getX());
+        m.put("y", center.getY());
+        m.put("z", center.getZ());
+        m.put("type", gate.getType().toString());
+        m.put("design", (gate instanceof LocalBlockGateImpl) ?
+                ((LocalBlockGateImpl)gate).getDesignName() :
+                gate.getType().toString());
+        m.put("creator", gate.getCreator().getName());
+        m.put("hidden", gate.getHidden());
+        m.put("links", gate.getLinks());
+        m.put("onWorldSend", gate.getSendLocalCost());
+        m.put("onWorldReceive", gate.getReceiveLocalCost());
+        m.put("offWorldSend", gate.getSendWorldCost());
+        m.put("offWorldReceive", gate.getReceiveWorldCost());
+        m.put("offServerSend", gate.getSendServerCost());
+        m.put("offServerReceive", gate.getReceiveServerCost());
+        return JSON.encode(m);
+    }
+
+    private static void scheduleWrite() {
+        if (writeScheduled) return;
+        writeScheduled = true;
+        long delay = Math.max(0, lastWriteTime + WRITE_INTERVAL - System.currentTimeMillis());
+        Utils.fireDelayed(new Runnable() {
+            public void run() {
+                writeScheduled = false;
+                lastWriteTime = System.currentTimeMillis();
+                String fileName = Config.getExportedGatesFile();
+                if (fileName == null) return;
+                File file = new File(fileName);
+                if (! file.isAbsolute())
+                    file = new File(Global.plugin.getDataFolder(), fileName);
+                final File exportFile = file;
+                final List<String> snapshot = new ArrayList<String>(entries.values());
+                final long sequence = writeSequence.incrementAndGet();
+                Utils.worker(new Runnable() {
+                    public void run() {
+                        write(exportFile, snapshot, sequence);
+                    }
+                });
+            }
+        }, delay);
+    }
+
+    // called from a worker thread
+    private static void write(File file, List<String> gates, long sequence) {
+        synchronized (writeLock) {
+            // a later snapshot already made it out
+            if (sequence < writtenSequence) return;
+            writtenSequence = sequence;
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (! parent.exists())
+                parent.mkdirs();
+            File tempFile = new File(parent, file.getName() + ".tmp");
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+                writer.write('[');
+                for (int i = 0; i < gates.size(); i++) {
+                    if (i > 0) writer.write(',');
+                    writer.write('\n');
+                    writer.write(gates.get(i));
+                }
+                writer.write("\n]\n");
+                writer.close();
+                writer = null;
+                try {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Utils.debug("exported %d gates to %s", gates.size(), file.getAbsolutePath());
+            } catch (IOException e) {
+                Utils.warning("unable to export gates to %s: %s", file.getAbsolutePath(), e.getMessage());
+                tempFile.delete();
+            } finally {
+                try {
+                    if (writer != null) writer.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+}
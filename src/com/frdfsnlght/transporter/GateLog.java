@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file holding every gate of one world.
+ * <p>
+ * Each record stores a key (the name of the gate's YAML file) and either
+ * the gate's encoded configuration or a removal marker, followed by a
+ * checksum. The last record for a key wins. An in-memory index of the live
+ * records is built when the log is opened and is used to decide when the
+ * log should be compacted. A damaged tail, left by a crash in the middle of
+ * an append, is detected by the checksum and cut off.
+ * <p>
+ * Instances are not thread safe, {@link GatePersister} serializes access.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class GateLog {
+
+    public static final String FILE_NAME = "gates.log";
+
+    private static final int MAGIC = 0x54524731;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    // magic, op, key length, payload length, crc
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4 + 8;
+    private static final int MAX_FIELD_LENGTH = 16 * 1024 * 1024;
+    private static final long COMPACT_MIN_GARBAGE = 64 * 1024;
+
+    private final File file;
+    private RandomAccessFile raf = null;
+
+    // live record sizes by key
+    private final Map<String,Integer> index = new HashMap<String,Integer>();
+    private long liveBytes = 0;
+    private long length = 0;
+    private boolean dirty = false;
+
+    public GateLog(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * Returns the encoded configuration of every live record, in the order
+     * they were last written.
+     */
+    public Map<String,String> readAll() throws IOException {
+        Map<String,String> values = new LinkedHashMap<String,String>();
+        scan(values);
+        return values;
+    }
+
+    public void put(String key, String encoded) throws IOException {
+        append(OP_PUT, key, encoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void remove(String key) throws IOException {
+        if (! index.containsKey(key)) return;
+        append(OP_REMOVE, key, new byte[0]);
+    }
+
+    // makes everything appended so far durable
+    public void sync() throws IOException {
+        if (! dirty) return;
+        raf.getChannel().force(false);
+        dirty = false;
+    }
+
+    /**
+     * Rewrites the log with only its live records once more than half of it
+     * is garbage. An empty log is deleted.
+     *
+     * @return false if the log was deleted and must not be used again
+     */
+    public boolean compactIfNeeded() throws IOException {
+        if (index.isEmpty()) {
+            close();
+            if (! file.delete())
+                Utils.warning("unable to delete %s", file.getAbsolutePath());
+            return false;
+        }
+        long garbage = length - liveBytes;
+        if ((garbage < COMPACT_MIN_GARBAGE) || (garbage < liveBytes)) return true;
+
+        Map<String,String> values = readAll();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            for (Map.Entry<String,String> e : values.entrySet())
+                out.write(encodeRecord(OP_PUT, e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8)));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        close();
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Utils.debug("compacted %s from %d to %d bytes", file.getAbsolutePath(), length, liveBytes);
+        open();
+        return true;
+    }
+
+    public void close() throws IOException {
+        if (raf == null) return;
+        sync();
+        raf.close();
+        raf = null;
+    }
+
+    private void open() throws IOException {
+        File parent = file.getParentFile();
+        if (! parent.exists())
+            parent.mkdirs();
+        raf = new RandomAccessFile(file, "rw");
+        scan(null);
+        if (length < raf.length()) {
+            Utils.warning("discarding %d damaged bytes at the end of %s", raf.length() - length, file.getAbsolutePath());
+            raf.setLength(length);
+        }
+        raf.seek(length);
+    }
+
+    private void append(byte op, String key, byte[] payload) throws IOException {
+        byte[] record = encodeRecord(op, key, payload);
+        raf.write(record);
+        length += record.length;
+        dirty = true;
+        Integer old = index.remove(key);
+        if (old != null) liveBytes -= old;
+        if (op == OP_PUT) {
+            index.put(key, record.length);
+            liveBytes += record.length;
+        }
+    }
+
+    // rebuilds the index, and collects live values if asked to
+    private void scan(Map<String,String> values) throws IOException {
+        index.clear();
+        liveBytes = 0;
+        length = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (;;) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (magic != MAGIC) break;
+                byte op = in.readByte();
+                if ((op != OP_PUT) && (op != OP_REMOVE)) break;
+                byte[] keyBytes = readField(in);
+                if (keyBytes == null) break;
+                byte[] payload = readField(in);
+                if (payload == null) break;
+                if (in.readLong() != checksum(op, keyBytes, payload)) break;
+                String key = new String(keyBytes, StandardCharsets.UTF_8);
+                int size = RECORD_OVERHEAD + keyBytes.length + payload.length;
+                Integer old = index.remove(key);
+                if (old != null) liveBytes -= old;
+                if (values != null) values.remove(key);
+                if (op == OP_PUT) {
+                    index.put(key, size);
+                    liveBytes += size;
+                    if (values != null)
+                        values.put(key, new String(payload, StandardCharsets.UTF_8));
+                }
+                length += size;
+            }
+        } catch (EOFException e) {
+            // a partial record at the end
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readField(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if ((len < 0) || (len > MAX_FIELD_LENGTH)) return null;
+        byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    private static byte[] encodeRecord(byte op, String key, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_OVERHEAD + keyBytes.length + payload.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(op);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(checksum(op, keyBytes, payload));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long checksum(byte op, byte[] keyBytes, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(keyBytes);
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+}
@@ -15,9 +15,12 @@
  */
 package com.frdfsnlght.transporter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.bukkit.Location;
@@ -29,34 +32,108 @@ import org.bukkit.World;
  */
 public final class GateMap {
 
+    // roles a volume can play, as bits so several can be asked about at once
+    public static final int ROLE_BUILD = 0x01;
+    public static final int ROLE_PORTAL = 0x02;
+    public static final int ROLE_SCREEN = 0x04;
+    public static final int ROLE_SWITCH = 0x08;
+    public static final int ROLE_TRIGGER = 0x10;
+    // portals with water or lava open blocks
+    public static final int ROLE_LIQUID = 0x20;
+    public static final int ROLE_ALL = 0x3f;
+
+    private static final int ROLE_COUNT = 6;
+
     private Map<World,WorldMap> worlds = new HashMap<World,WorldMap>();
+    private World lastWorld = null;
+    private WorldMap lastWorldMap = null;
+
+    // number of volumes with each role, across all worlds
+    private int[] roleCounts = new int[ROLE_COUNT];
 
     public GateMap() {}
 
     public void put(Volume volume) {
+        put(volume, ROLE_ALL);
+    }
+
+    public void put(Volume volume, int role) {
+        volume.role = role;
         World world = volume.getWorld();
-        if (! worlds.containsKey(world))
+        if (! worlds.containsKey(world)) {
             worlds.put(world, new WorldMap());
+            lastWorld = null;
+        }
         worlds.get(world).add(volume);
+        countRoles(role, 1);
+    }
+
+    // nearly every lookup in a row is for the same world
+    private WorldMap getWorldMap(World world) {
+        if (world != lastWorld) {
+            lastWorld = world;
+            lastWorldMap = worlds.get(world);
+        }
+        return lastWorldMap;
     }
 
     public LocalGateImpl getGate(Location location) {
-        World world = location.getWorld();
-        WorldMap wmap = worlds.get(world);
+        return getGate(location, ROLE_ALL);
+    }
+
+    public LocalGateImpl getGate(Location location, int roles) {
+        WorldMap wmap = getWorldMap(location.getWorld());
         if (wmap == null) return null;
-        VolumeNode node = wmap.getNode(location);
-        if (node == null) return null;
-        return node.getGate(location);
+        int x = location.getBlockX(), y = location.getBlockY(), z = location.getBlockZ();
+        if (! wmap.mayContain(x, y, z, roles)) return null;
+        return wmap.getGate(x, y, z, roles);
+    }
+
+    // a cheap test that returns false only if no volume with any of the
+    // roles can contain the block
+    public boolean mayContain(World world, int x, int y, int z, int roles) {
+        WorldMap wmap = getWorldMap(world);
+        return (wmap != null) && wmap.mayContain(x, y, z, roles);
+    }
+
+    // returns null if no volume contains the location
+    public BlockRoles getRoles(Location location) {
+        WorldMap wmap = getWorldMap(location.getWorld());
+        if (wmap == null) return null;
+        int x = location.getBlockX(), y = location.getBlockY(), z = location.getBlockZ();
+        if (! wmap.mayContain(x, y, z, ROLE_ALL)) return null;
+        return wmap.getRoles(x, y, z);
     }
 
     public void removeGate(LocalGateImpl gate) {
+        removeGate(gate, ROLE_ALL);
+    }
+
+    public void removeGate(LocalGateImpl gate, int roles) {
         World world = gate.getWorld();
         if (worlds.containsKey(world))
-            worlds.get(world).removeGate(gate);
+            for (Volume volume : worlds.get(world).removeGate(gate, roles))
+                countRoles(volume.role, -1);
     }
 
     public void removeWorld(World world) {
-        worlds.remove(world);
+        WorldMap wmap = worlds.remove(world);
+        if (wmap == null) return;
+        lastWorld = null;
+        for (List<Volume> vols : wmap.gateVolumes.values())
+            for (Volume volume : vols)
+                countRoles(volume.role, -1);
+    }
+
+    // returns true if any volume has the role
+    public boolean hasRole(int role) {
+        return roleCounts[Integer.numberOfTrailingZeros(role)] > 0;
+    }
+
+    private void countRoles(int roles, int delta) {
+        for (int i = 0; i < ROLE_COUNT; i++)
+            if ((roles & (1 << i)) != 0)
+                roleCounts[i] += delta;
     }
 
     public int size() {
@@ -123,7 +200,7 @@ public final class GateMap {
         }
         @Override
         public int hashCode() {
-            return x + y + x;
+            return (((x * 31) + y) * 31) + z;
         }
         @Override
         public String toString() {
@@ -164,9 +241,12 @@ public final class GateMap {
             expand(b.max);
         }
         public boolean contains(Location loc) {
-            return (loc.getBlockX() >= min.x) && (loc.getBlockX() <= max.x) &&
-                   (loc.getBlockZ() >= min.z) && (loc.getBlockZ() <= max.z) &&
-                   (loc.getBlockY() >= min.y) && (loc.getBlockY() <= max.y);
+            return contains(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        }
+        public boolean contains(int x, int y, int z) {
+            return (x >= min.x) && (x <= max.x) &&
+                   (z >= min.z) && (z <= max.z) &&
+                   (y >= min.y) && (y <= max.y);
         }
         public int sizeX() { return max.x - min.x; }
         public int sizeY() { return max.y - min.y; }
@@ -195,65 +275,213 @@ public final class GateMap {
         }
     }
 
-    private class WorldMap {
+    private static final class WorldMap {
+
+        // cells are chunk columns
+        private static final int CELL_SHIFT = 4;
 
-        private Set<Volume> volumes = new HashSet<Volume>();
-        private VolumeNode root = null;
+        // bounds-only volumes spanning more cells than this are kept aside and checked directly
+        private static final int MAX_CELLS = 256;
+
+        private Map<Long,List<Volume>> cells = new HashMap<Long,List<Volume>>();
+        private List<Volume> largeVolumes = new ArrayList<Volume>();
+        private Map<LocalGateImpl,List<Volume>> gateVolumes = new HashMap<LocalGateImpl,List<Volume>>();
+        private int size = 0;
+
+        // role masks by chunk section, and the volume count behind each role bit
+        private LongIntMap sectionRoles = new LongIntMap();
+        private LongIntMap sectionRoleCounts = new LongIntMap();
+        private int largeRoles = 0;
 
         void add(Volume volume) {
-            volumes.add(volume);
-            recalculate();
+            List<Volume> vols = gateVolumes.get(volume.gate);
+            if (vols == null) {
+                vols = new ArrayList<Volume>(2);
+                gateVolumes.put(volume.gate, vols);
+            }
+            vols.add(volume);
+            size++;
+            Set<Long> keys = getCellKeys(volume);
+            if (keys == null) {
+                largeVolumes.add(volume);
+                largeRoles |= volume.role;
+                return;
+            }
+            for (Long key : keys) {
+                List<Volume> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<Volume>(2);
+                    cells.put(key, cell);
+                }
+                cell.add(volume);
+            }
+            countSections(volume, 1);
+        }
+
+        boolean mayContain(int x, int y, int z, int roles) {
+            if ((largeRoles & roles) != 0) return true;
+            return (sectionRoles.get(sectionKey(x >> 4, y >> 4, z >> 4)) & roles) != 0;
         }
 
-        VolumeNode getNode(Location loc) {
-            if (root == null) return null;
-            return root.getNode(loc);
+        LocalGateImpl getGate(int x, int y, int z, int roles) {
+            List<Volume> cell = cells.get(cellKey(x >> CELL_SHIFT, z >> CELL_SHIFT));
+            if (cell != null)
+                for (Volume vol : cell)
+                    if (((vol.role & roles) != 0) && vol.contains(x, y, z)) return vol.gate;
+            for (Volume vol : largeVolumes)
+                if (((vol.role & roles) != 0) && vol.contains(x, y, z)) return vol.gate;
+            return null;
         }
 
-        void removeGate(LocalGateImpl gate) {
-            for (Iterator<Volume> i = volumes.iterator(); i.hasNext(); )
-                if (i.next().getGate() == gate)
-                    i.remove();
-            recalculate();
+        BlockRoles getRoles(int x, int y, int z) {
+            BlockRoles roles = null;
+            List<Volume> cell = cells.get(cellKey(x >> CELL_SHIFT, z >> CELL_SHIFT));
+            if (cell != null)
+                for (Volume vol : cell)
+                    if (vol.contains(x, y, z)) {
+                        if (roles == null) roles = new BlockRoles();
+                        roles.add(vol);
+                    }
+            for (Volume vol : largeVolumes)
+                if (vol.contains(x, y, z)) {
+                    if (roles == null) roles = new BlockRoles();
+                    roles.add(vol);
+                }
+            return roles;
+        }
+
+        // returns the volumes removed
+        List<Volume> removeGate(LocalGateImpl gate, int roles) {
+            List<Volume> removed = new ArrayList<Volume>(2);
+            List<Volume> vols = gateVolumes.get(gate);
+            if (vols == null) return removed;
+            for (Iterator<Volume> i = vols.iterator(); i.hasNext(); ) {
+                Volume volume = i.next();
+                if ((volume.role & roles) == 0) continue;
+                i.remove();
+                removed.add(volume);
+                size--;
+                Set<Long> keys = getCellKeys(volume);
+                if (keys == null) {
+                    largeVolumes.remove(volume);
+                    largeRoles = 0;
+                    for (Volume vol : largeVolumes)
+                        largeRoles |= vol.role;
+                    continue;
+                }
+                countSections(volume, -1);
+                for (Long key : keys) {
+                    List<Volume> cell = cells.get(key);
+                    if (cell == null) continue;
+                    cell.remove(volume);
+                    if (cell.isEmpty())
+                        cells.remove(key);
+                }
+            }
+            if (vols.isEmpty())
+                gateVolumes.remove(gate);
+            return removed;
         }
 
         int size() {
-            return volumes.size();
+            return size;
         }
 
         int nodeCount() {
-            if (root == null) return 0;
-            return root.nodeCount();
+            return cells.size() + (largeVolumes.isEmpty() ? 0 : 1);
+        }
+
+        // returns null if the volume is too big to be put in cells
+        private Set<Long> getCellKeys(Volume volume) {
+            Set<Long> keys = new HashSet<Long>();
+            if (volume.points == null) {
+                Bounds b = volume.bounds;
+                int minX = b.min.x >> CELL_SHIFT, maxX = b.max.x >> CELL_SHIFT;
+                int minZ = b.min.z >> CELL_SHIFT, maxZ = b.max.z >> CELL_SHIFT;
+                if (((long)(maxX - minX + 1) * (long)(maxZ - minZ + 1)) > MAX_CELLS) return null;
+                for (int x = minX; x <= maxX; x++)
+                    for (int z = minZ; z <= maxZ; z++)
+                        keys.add(cellKey(x, z));
+            } else {
+                for (long p : volume.points.toArray())
+                    keys.add(cellKey(BlockSet.unpackX(p) >> CELL_SHIFT, BlockSet.unpackZ(p) >> CELL_SHIFT));
+            }
+            return keys;
+        }
+
+        private static long cellKey(int x, int z) {
+            return ((long)x << 32) | (z & 0xffffffffL);
         }
 
-        private void recalculate() {
-//            Utils.debug("!!!! recalculate worldmap !!!!");
-//            Utils.debug(toString());
+        private static long sectionKey(int x, int y, int z) {
+            return (((long)x & 0x3fffffL) << 30) | (((long)z & 0x3fffffL) << 8) | ((long)y & 0xffL);
+        }
 
-            if (root != null) root.destroy();
-            if ((volumes == null) || volumes.isEmpty()) return;
-            root = new VolumeNode(null, volumes);
+        private void countSections(Volume volume, int delta) {
+            Set<Long> keys = new HashSet<Long>();
+            if (volume.points == null) {
+                Bounds b = volume.bounds;
+                for (int x = b.min.x >> 4; x <= (b.max.x >> 4); x++)
+                    for (int y = b.min.y >> 4; y <= (b.max.y >> 4); y++)
+                        for (int z = b.min.z >> 4; z <= (b.max.z >> 4); z++)
+                            keys.add(sectionKey(x, y, z));
+            } else {
+                for (long p : volume.points.toArray())
+                    keys.add(sectionKey(BlockSet.unpackX(p) >> 4, BlockSet.unpackY(p) >> 4, BlockSet.unpackZ(p) >> 4));
+            }
+            for (long key : keys)
+                for (int i = 0; i < ROLE_COUNT; i++) {
+                    int role = 1 << i;
+                    if ((volume.role & role) == 0) continue;
+                    int count = sectionRoleCounts.add((key << 3) | i, delta);
+                    if ((delta > 0) && (count == 1))
+                        sectionRoles.put(key, sectionRoles.get(key) | role);
+                    else if ((delta < 0) && (count == 0))
+                        sectionRoles.put(key, sectionRoles.get(key) & ~role);
+                }
         }
 
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append("WorldMap[");
-            sb.append(volumes.size()).append(" volumes:\n");
-            for (Volume volume : volumes) {
-                sb.append(volume.toString());
-                sb.append(",\n");
-            }
+            sb.append(size).append(" volumes:\n");
+            for (List<Volume> vols : gateVolumes.values())
+                for (Volume volume : vols) {
+                    sb.append(volume.toString());
+                    sb.append(",\n");
+                }
             sb.append("]");
             return sb.toString();
         }
 
     }
 
+    // the gates found at a single block, by role
+    public static final class BlockRoles {
+        private int roles = 0;
+        private LocalGateImpl[] gates = new LocalGateImpl[ROLE_COUNT];
+        private void add(Volume vol) {
+            for (int i = 0; i < ROLE_COUNT; i++) {
+                int role = 1 << i;
+                if (((vol.role & role) == 0) || ((roles & role) != 0)) continue;
+                roles |= role;
+                gates[i] = vol.gate;
+            }
+        }
+        public int getRoles() { return roles; }
+        public boolean has(int role) { return (roles & role) != 0; }
+        // returns the first gate found with the role
+        public LocalGateImpl getGate(int role) {
+            return gates[Integer.numberOfTrailingZeros(role)];
+        }
+    }
+
     public static final class Volume {
         protected LocalGateImpl gate;
+        protected int role = 0;
         protected Bounds bounds = new Bounds();
-        protected Set<Point> points = null;
+        protected BlockSet points = null;
         public Volume(LocalGateImpl gate) {
             this.gate = gate;
         }
@@ -262,13 +490,11 @@ public final class GateMap {
         public LocalGateImpl getGate() { return gate; }
         public void addPoint(Point p) {
             if (points == null) {
-                points = new HashSet<Point>();
-                points.add(p);
+                points = new BlockSet();
                 bounds.set(p);
-            } else {
-                points.add(p);
+            } else
                 bounds.expand(p);
-            }
+            points.add(p.x, p.y, p.z);
         }
         public void setBounds(Bounds b) {
             bounds.min = b.min;
@@ -279,18 +505,11 @@ public final class GateMap {
             bounds.expand(p2);
         }
         public boolean contains(Location loc) {
-            Point lp = new Point(loc);
-            if (points == null) {
-                if (bounds.contains(loc)) {
-                    return true;
-                }
-                return false;
-            }
-            for (Point p : points)
-                if (p.equals(lp)) {
-                    return true;
-                }
-            return false;
+            return contains(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        }
+        public boolean contains(int x, int y, int z) {
+            if (! bounds.contains(x, y, z)) return false;
+            return (points == null) || points.contains(x, y, z);
         }
         public Volume[] split(Point center) {
             Volume[] vols = new Volume[4];
@@ -324,7 +543,8 @@ public final class GateMap {
                 }
 
             } else {
-                for (Point p : points)
+                for (long packed : points.toArray()) {
+                    Point p = new Point(BlockSet.unpackX(packed), BlockSet.unpackY(packed), BlockSet.unpackZ(packed));
                     if (p.x < center.x) {
                         if (p.z < center.z) {
                             if (vols[0] == null) vols[0] = new Volume(gate);
@@ -342,6 +562,7 @@ public final class GateMap {
                             vols[3].addPoint(p);
                         }
                     }
+                }
             }
             return vols;
         }
@@ -354,7 +575,9 @@ public final class GateMap {
                 sb.append(gate.getName());
                 sb.append(",");
             }
-            sb.append("b=");
+            sb.append("r=");
+            sb.append(role);
+            sb.append(",b=");
             sb.append(bounds);
             if (points != null) {
                 sb.append(",p=");
@@ -365,101 +588,170 @@ public final class GateMap {
         }
     }
 
-    private final class VolumeNode {
-        private static final int LEAF_SIZE = 16;
-        VolumeNode parent = null;
-        Point center;
-        Bounds bounds;
-        VolumeNode[] children = null;
-        Set<Volume> volumes = null;
-        VolumeNode(VolumeNode parent, Set<Volume> volumes) {
-            this.parent = parent;
-            center = new Point();
-
-            // find the center
-            for (Volume vol : volumes) {
-                center.x += vol.bounds.min.x + vol.bounds.max.x;
-                center.y += vol.bounds.min.y + vol.bounds.max.y;
-                center.z += vol.bounds.min.z + vol.bounds.max.z;
+    // marks free slots in the open-addressing tables below; as a packed block
+    // it's x = -2^25, y = 0, z = 0, which is well outside any world
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static long[] newTable(int capacity) {
+        long[] t = new long[capacity];
+        Arrays.fill(t, EMPTY);
+        return t;
+    }
+
+    private static int slot(long v, int mask) {
+        long h = v * 0x9e3779b97f4a7c15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    // open-addressing set of block coordinates packed into longs
+    private static final class BlockSet {
+
+        private long[] table = newTable(16);
+        private int size = 0;
+
+        static long pack(int x, int y, int z) {
+            return (((long)x & 0x3ffffffL) << 38) | (((long)z & 0x3ffffffL) << 12) | ((long)y & 0xfffL);
+        }
+
+        static int unpackX(long v) { return (int)(v >> 38); }
+        static int unpackY(long v) { return (int)((v << 52) >> 52); }
+        static int unpackZ(long v) { return (int)((v << 26) >> 38); }
+
+        int size() {
+            return size;
+        }
+
+        boolean add(int x, int y, int z) {
+            long v = pack(x, y, z);
+            int mask = table.length - 1;
+            int i = slot(v, mask);
+            while (table[i] != EMPTY) {
+                if (table[i] == v) return false;
+                i = (i + 1) & mask;
             }
-            center.x = center.x / (volumes.size() * 2);
-            center.y = center.y / (volumes.size() * 2);
-            center.z = center.z / (volumes.size() * 2);
-
-            bounds = new Bounds();
-            bounds.set(center);
-            Set<Volume> vols0 = new HashSet<Volume>();
-            Set<Volume> vols1 = new HashSet<Volume>();
-            Set<Volume> vols2 = new HashSet<Volume>();
-            Set<Volume> vols3 = new HashSet<Volume>();
-
-            // find bounds and create quads
-            for (Volume vol : volumes) {
-                bounds.expand(vol.bounds);
-                Volume[] vols = vol.split(center);
-                if (vols[0] != null) vols0.add(vols[0]);
-                if (vols[1] != null) vols1.add(vols[1]);
-                if (vols[2] != null) vols2.add(vols[2]);
-                if (vols[3] != null) vols3.add(vols[3]);
+            table[i] = v;
+            // keep the load factor at or under one half
+            if (++size * 2 > table.length) grow();
+            return true;
+        }
+
+        boolean contains(int x, int y, int z) {
+            long v = pack(x, y, z);
+            int mask = table.length - 1;
+            int i = slot(v, mask);
+            long t;
+            while ((t = table[i]) != EMPTY) {
+                if (t == v) return true;
+                i = (i + 1) & mask;
             }
+            return false;
+        }
 
-            // limit tree growth
-            if ((bounds.sizeX() <= LEAF_SIZE) &&
-                (bounds.sizeZ() <= LEAF_SIZE)) {
-                this.volumes = volumes;
-                return;
+        long[] toArray() {
+            long[] a = new long[size];
+            int n = 0;
+            for (long v : table)
+                if (v != EMPTY) a[n++] = v;
+            return a;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = newTable(old.length * 2);
+            int mask = table.length - 1;
+            for (long v : old) {
+                if (v == EMPTY) continue;
+                int i = slot(v, mask);
+                while (table[i] != EMPTY)
+                    i = (i + 1) & mask;
+                table[i] = v;
             }
+        }
+
+    }
 
-            children = new VolumeNode[4];
-            if (! vols0.isEmpty()) children[0] = new VolumeNode(this, vols0);
-            if (! vols1.isEmpty()) children[1] = new VolumeNode(this, vols1);
-            if (! vols2.isEmpty()) children[2] = new VolumeNode(this, vols2);
-            if (! vols3.isEmpty()) children[3] = new VolumeNode(this, vols3);
+    // open-addressing map of packed longs to ints, missing keys read as zero
+    private static final class LongIntMap {
 
-        }
-        void destroy() {
-            volumes = null;
-            parent = null;
-            if (children != null) {
-                for (int i = 0; i < 4; i++)
-                    if (children[i] != null) children[i].destroy();
-                children = null;
+        private long[] keys = newTable(16);
+        private int[] values = new int[16];
+        private int size = 0;
+
+        int get(long k) {
+            int mask = keys.length - 1;
+            int i = slot(k, mask);
+            long t;
+            while ((t = keys[i]) != EMPTY) {
+                if (t == k) return values[i];
+                i = (i + 1) & mask;
             }
+            return 0;
+        }
+
+        // a value of zero removes the key
+        void put(long k, int v) {
+            int mask = keys.length - 1;
+            int i = slot(k, mask);
+            while (keys[i] != EMPTY) {
+                if (keys[i] == k) {
+                    if (v == 0)
+                        removeAt(i);
+                    else
+                        values[i] = v;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (v == 0) return;
+            keys[i] = k;
+            values[i] = v;
+            if (++size * 2 > keys.length) grow();
         }
-        int nodeCount() {
-            if (children == null) return 1;
-            int count = 1;
-            for (VolumeNode child : children)
-                if (child != null) count += child.nodeCount();
-            return count;
-        }
-        LocalGateImpl getGate(Location loc) {
-            if ((children != null) || (volumes == null)) return null;
-            for (Volume vol : volumes)
-                if (vol.contains(loc)) return vol.gate;
-            return null;
+
+        int add(long k, int delta) {
+            int v = get(k) + delta;
+            put(k, v);
+            return v;
         }
-        VolumeNode getNode(Location loc) {
-            if (! bounds.contains(loc)) return null;
-            if (children == null) return this;
-            if (loc.getBlockX() < center.x) {
-                if (loc.getBlockZ() < center.z) {
-                    if (children[0] == null) return null;
-                    return children[0].getNode(loc);
-                } else {
-                    if (children[1] == null) return null;
-                    return children[1].getNode(loc);
-                }
-            } else {
-                if (loc.getBlockZ() < center.z) {
-                    if (children[2] == null) return null;
-                    return children[2].getNode(loc);
-                } else {
-                    if (children[3] == null) return null;
-                    return children[3].getNode(loc);
-                }
+
+        int size() {
+            return size;
+        }
+
+        // shifts later entries of the probe run back so lookups never stop early
+        private void removeAt(int i) {
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == EMPTY) break;
+                int k = slot(keys[j], mask);
+                if ((j > i) ? ((k > i) && (k <= j)) : ((k > i) || (k <= j))) continue;
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+            keys[i] = EMPTY;
+            values[i] = 0;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newTable(oldKeys.length * 2);
+            values = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == EMPTY) continue;
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != EMPTY)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
             }
         }
+
     }
 
 }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import com.frdfsnlght.transporter.api.TypeMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Writes gate files from a background thread.
+ * <p>
+ * Gates hand over a frozen snapshot of their configuration from the main
+ * thread. Requests for the same file are coalesced, so only the latest
+ * snapshot (or a deletion) is written once the flush interval has passed.
+ * Files are written to a temporary file, synced and then renamed over the
+ * original, so a crash never leaves a truncated gate file behind.
+ * <p>
+ * When the gateStorage option is "log", gates are appended to a single
+ * {@link GateLog} per world instead, still keyed by the name of their YAML
+ * file. Whichever format is not in use is cleaned up as gates are written,
+ * and switching the option rewrites every gate, which migrates them.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class GatePersister {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // pending writes by file, a null value means delete the file
+    private static final Map<File,TypeMap> pending = new LinkedHashMap<File,TypeMap>();
+
+    // held while files are written so flush() and the writer thread don't overlap
+    private static final Object ioLock = new Object();
+
+    // open logs by gates folder, guarded by ioLock
+    private static final Map<File,GateLog> logs = new HashMap<File,GateLog>();
+
+    private static Thread writerThread = null;
+    private static boolean stopping = false;
+    private static long firstPendingTime = 0;
+    private static Yaml yaml = null;
+
+    // called from the main thread
+    public static void start() {
+        synchronized (pending) {
+            if (writerThread != null) return;
+            stopping = false;
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    GatePersister.run();
+                }
+            }, Global.pluginName + " Gate Writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    // called from the main thread, returns after all pending files are written
+    public static void stop() {
+        Thread t;
+        synchronized (pending) {
+            t = writerThread;
+            if (t == null) return;
+            stopping = true;
+            pending.notifyAll();
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {}
+        synchronized (pending) {
+            writerThread = null;
+        }
+        flush();
+        synchronized (ioLock) {
+            for (GateLog log : logs.values()) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    Utils.warning("unable to close %s: %s", log.getFile().getAbsolutePath(), e.getMessage());
+                }
+            }
+            logs.clear();
+        }
+    }
+
+    public static boolean useLog() {
+        return "log".equals(Config.getSettings().gateStorage);
+    }
+
+    // called from the main thread
+
+    /**
+     * Returns the configurations of the gates in the log in the specified
+     * gates folder. Each map's file is the YAML file the gate would
+     * otherwise be stored in.
+     */
+    public static List<TypeMap> readLog(File folder) {
+        List<TypeMap> confs = new ArrayList<TypeMap>();
+        synchronized (ioLock) {
+            try {
+                GateLog log = getLog(folder, false);
+                if (log == null) return confs;
+                for (Map.Entry<String,String> e : log.readAll().entrySet()) {
+                    TypeMap conf = new TypeMap(new File(folder, e.getKey()));
+                    conf.putAll(TypeMap.decode(e.getValue()));
+                    confs.add(conf);
+                }
+            } catch (IOException e) {
+                Utils.warning("unable to read gate log in %s: %s", folder.getAbsolutePath(), e.getMessage());
+            }
+        }
+        return confs;
+    }
+
+    // called from the main thread
+    public static void write(File file, TypeMap conf) {
+        synchronized (pending) {
+            if (writerThread != null) {
+                queue(file, conf.freeze());
+                return;
+            }
+        }
+        synchronized (ioLock) {
+            process(Collections.singletonMap(file, conf));
+        }
+    }
+
+    // called from the main thread
+    public static void delete(File file) {
+        synchronized (pending) {
+            if (writerThread != null) {
+                queue(file, null);
+                return;
+            }
+        }
+        synchronized (ioLock) {
+            process(Collections.singletonMap(file, (TypeMap)null));
+        }
+    }
+
+    // can be called from any thread, writes everything pending on the calling thread
+    public static void flush() {
+        synchronized (ioLock) {
+            process(take());
+        }
+    }
+
+    public static int getPending() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    private static void queue(File file, TypeMap conf) {
+        if (pending.isEmpty())
+            firstPendingTime = System.currentTimeMillis();
+        pending.remove(file);
+        pending.put(file, conf);
+        pending.notifyAll();
+    }
+
+    private static Map<File,TypeMap> take() {
+        synchronized (pending) {
+            Map<File,TypeMap> batch = new LinkedHashMap<File,TypeMap>(pending);
+            pending.clear();
+            return batch;
+        }
+    }
+
+    // called from the writer thread
+    private static void run() {
+        for (;;) {
+            synchronized (pending) {
+                try {
+                    if (pending.isEmpty()) {
+                        if (stopping) return;
+                        pending.wait();
+                        continue;
+                    }
+                    long wait = firstPendingTime + Config.getSettings().gateSaveInterval - System.currentTimeMillis();
+                    if ((wait > 0) && (! stopping)) {
+                        pending.wait(wait);
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                flush();
+            } catch (Throwable t) {
+                Utils.severe(t, "unexpected error while writing gate files:");
+            }
+        }
+    }
+
+    // called with ioLock held
+    private static void process(Map<File,TypeMap> batch) {
+        if (batch.isEmpty()) return;
+        boolean useLog = useLog();
+        Set<GateLog> touched = new HashSet<GateLog>();
+        List<File> obsolete = new ArrayList<File>();
+        for (Map.Entry<File,TypeMap> e : batch.entrySet()) {
+            File file = e.getKey();
+            try {
+                if (e.getValue() == null) {
+                    deleteFile(file);
+                    removeFromLog(file, touched);
+                } else if (useLog) {
+                    GateLog log = getLog(file.getParentFile(), true);
+                    log.put(file.getName(), e.getValue().encode());
+                    touched.add(log);
+                    if (file.exists()) obsolete.add(file);
+                } else if (writeFile(file, e.getValue()))
+                    removeFromLog(file, touched);
+            } catch (IOException ioe) {
+                Utils.warning("unable to update gate log for %s: %s", file.getAbsolutePath(), ioe.getMessage());
+            } catch (RuntimeException re) {
+                // skip this gate, but keep going with the rest of the batch
+                Utils.severe(re, "unable to save gate %s:", file.getAbsolutePath());
+            }
+        }
+        for (GateLog log : touched) {
+            try {
+                log.sync();
+                if (! log.compactIfNeeded())
+                    logs.remove(log.getFile().getParentFile());
+            } catch (IOException e) {
+                Utils.warning("unable to update %s: %s", log.getFile().getAbsolutePath(), e.getMessage());
+                // don't delete YAML files that might not be in the log
+                obsolete.clear();
+            }
+        }
+        // only now that the log is on disk
+        for (File file : obsolete)
+            file.delete();
+    }
+
+    // called with ioLock held
+    private static GateLog getLog(File folder, boolean create) throws IOException {
+        GateLog log = logs.get(folder);
+        if (log != null) return log;
+        File logFile = new File(folder, GateLog.FILE_NAME);
+        if ((! create) && (! logFile.exists())) return null;
+        log = new GateLog(logFile);
+        logs.put(folder, log);
+        return log;
+    }
+
+    // called with ioLock held
+    private static void removeFromLog(File file, Set<GateLog> touched) throws IOException {
+        GateLog log = getLog(file.getParentFile(), false);
+        if ((log == null) || (! log.contains(file.getName()))) return;
+        log.remove(file.getName());
+        touched.add(log);
+    }
+
+    // called with ioLock held
+    private static boolean writeFile(File file, TypeMap conf) {
+        File parent = file.getParentFile();
+        if (! parent.exists())
+            parent.mkdirs();
+        if (yaml == null) {
+            DumperOptions options = new DumperOptions();
+            options.setIndent(4);
+            yaml = new Yaml(options);
+        }
+        File tempFile = new File(parent, file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            yaml.dump(conf, writer);
+            writer.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            Utils.warning("unable to write gate file %s: %s", file.getAbsolutePath(), e.getMessage());
+            tempFile.delete();
+            return false;
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    // called with ioLock held
+    private static void deleteFile(File file) {
+        if (! file.exists()) return;
+        if (! file.delete())
+            Utils.warning("unable to delete gate file %s", file.getAbsolutePath());
+        else
+            Utils.info("deleted gate file %s", file.getAbsolutePath());
+    }
+
+}
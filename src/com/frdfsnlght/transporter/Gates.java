@@ -17,13 +17,18 @@ package com.frdfsnlght.transporter;
 
 import com.frdfsnlght.transporter.GateMap.Volume;
 import com.frdfsnlght.transporter.api.GateException;
+import com.frdfsnlght.transporter.api.GateType;
 import com.frdfsnlght.transporter.api.TransporterException;
+import com.frdfsnlght.transporter.api.TypeMap;
 import com.frdfsnlght.transporter.api.event.LocalGateCreateEvent;
 import com.frdfsnlght.transporter.api.event.LocalGateDestroyEvent;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,23 +44,29 @@ import org.bukkit.entity.Player;
  */
 public final class Gates {
 
-    // Gate build blocks that are protected
-    private static final GateMap protectionMap = new GateMap();
+    // Protected build blocks, portal blocks of open gates, screens,
+    // switches and triggers for local gates, tagged by role
+    public static final GateMap blockMap = new GateMap();
 
-    // Portal blocks for open, local gates
-    private static final GateMap portalMap = new GateMap();
-
-    // Gate screens for local gates
-    private static final GateMap screenMap = new GateMap();
+    // Indexed by full name
+    private static final Map<String,GateImpl> gates = new HashMap<String,GateImpl>();
 
-    // Gate switches for local gates
-    public static final GateMap switchMap = new GateMap();
+    // Indexes kept in step with the gates map by index() and unindex()
+    private static final Set<LocalGateImpl> localGates = new HashSet<LocalGateImpl>();
+    private static final Set<RemoteGateImpl> remoteGates = new HashSet<RemoteGateImpl>();
+    // local gates that receive chat within a limited distance
+    private static final Set<LocalGateImpl> rangedChatReceivers = new HashSet<LocalGateImpl>();
+    private static final Map<World,Set<LocalGateImpl>> localGatesByWorld = new HashMap<World,Set<LocalGateImpl>>();
+    private static final Map<Server,Set<RemoteGateImpl>> remoteGatesByServer = new HashMap<Server,Set<RemoteGateImpl>>();
+    private static final Map<GateType,Set<GateImpl>> gatesByType = new EnumMap<GateType,Set<GateImpl>>(GateType.class);
+    private static final NameTrie names = new NameTrie();
 
-    // Gate triggers for local gates
-    public static final GateMap triggerMap = new GateMap();
+    // Local gates that link to, target or are attached to each full name, and the reverse
+    private static final Map<String,Set<LocalGateImpl>> referrers = new HashMap<String,Set<LocalGateImpl>>();
+    private static final Map<LocalGateImpl,Set<String>> references = new HashMap<LocalGateImpl,Set<String>>();
 
-    // Indexed by full name
-    private static final Map<String,GateImpl> gates = new HashMap<String,GateImpl>();
+    private static final Set<LocalGateImpl> localGatesView = Collections.unmodifiableSet(localGates);
+    private static final Set<RemoteGateImpl> remoteGatesView = Collections.unmodifiableSet(remoteGates);
 
     private static Map<Integer,LocalGateImpl> selectedGates = new HashMap<Integer,LocalGateImpl>();
 
@@ -72,18 +83,39 @@ public final class Gates {
             Utils.info("no gates found for world '%s'", world.getName());
             return 0;
         }
+        // make sure we read what was last saved
+        GatePersister.flush();
+        // a gate stored in both formats is taken from the one in use
+        if (GatePersister.useLog())
+            return loadLoggedGates(ctx, world, gatesFolder) + loadGateFiles(ctx, world, gatesFolder);
+        else
+            return loadGateFiles(ctx, world, gatesFolder) + loadLoggedGates(ctx, world, gatesFolder);
+    }
+
+    private static int loadLoggedGates(Context ctx, World world, File gatesFolder) {
         int loadedCount = 0;
-        for (File gateFile : Utils.listYAMLFiles(gatesFolder)) {
+        for (TypeMap conf : GatePersister.readLog(gatesFolder)) {
             try {
-                LocalGateImpl gate = LocalGateImpl.load(world, gateFile);
-                if (gates.containsKey(gate.getFullName())) continue;
-                try {
-                    add(gate, false);
-                    ctx.sendLog("loaded gate '%s' for world '%s'", gate.getName(), world.getName());
+                if (addLoaded(ctx, world, LocalGateImpl.load(world, conf)))
+                    loadedCount++;
+            } catch (TransporterException te) {
+                ctx.warnLog("'%s' contains an invalid gate '%s' for world '%s': %s", GateLog.FILE_NAME, conf.getFile().getName(), world.getName(), te.getMessage());
+            } catch (Throwable t) {
+                Utils.severe(t, "there was a problem loading the gate '%s' for world '%s':", conf.getFile().getName(), world.getName());
+            }
+        }
+        return loadedCount;
+    }
+
+    private static int loadGateFiles(Context ctx, World world, File gatesFolder) {
+        int loadedCount = 0;
+        File[] gateFiles = Utils.listYAMLFiles(gatesFolder);
+        if (gateFiles == null) return 0;
+        for (ParallelLoader.Result result : ParallelLoader.load(gateFiles)) {
+            File gateFile = result.getFile();
+            try {
+                if (addLoaded(ctx, world, LocalGateImpl.load(world, result.getConf())))
                     loadedCount++;
-                } catch (GateException ge) {
-                    ctx.warnLog("unable to load gate '%s' for world '%s': %s", gate.getName(), world.getName(), ge.getMessage());
-                }
             } catch (TransporterException te) {
                 ctx.warnLog("'%s' contains an invalid gate file for world '%s': %s", gateFile.getPath(), world.getName(), te.getMessage());
             } catch (Throwable t) {
@@ -93,16 +125,40 @@ public final class Gates {
         return loadedCount;
     }
 
+    private static boolean addLoaded(Context ctx, World world, LocalGateImpl gate) {
+        if (gates.containsKey(gate.getFullName())) return false;
+        try {
+            add(gate, false);
+            ctx.sendLog("loaded gate '%s' for world '%s'", gate.getName(), world.getName());
+            return true;
+        } catch (GateException ge) {
+            ctx.warnLog("unable to load gate '%s' for world '%s': %s", gate.getName(), world.getName(), ge.getMessage());
+            return false;
+        }
+    }
+
+    // saves the gates that have changed since they were last saved
     public static void save(Context ctx) {
+        save(ctx, false);
+    }
+
+    // saves every gate, changed or not
+    public static void saveAll(Context ctx) {
+        save(ctx, true);
+    }
+
+    private static void save(Context ctx, boolean force) {
         if (gates.isEmpty()) return;
-        Set<LocalGateImpl> lgates = getLocalGates();
-        for (LocalGateImpl gate : lgates) {
+        int count = 0;
+        for (LocalGateImpl gate : localGates) {
+            if ((! force) && (! gate.isDirty())) continue;
             gate.save(true);
+            count++;
             if ((ctx != null) && Config.getShowGatesSavedMessage())
                 ctx.sendLog("saved '%s'", gate.getLocalName());
         }
         if ((ctx != null) && (! Config.getShowGatesSavedMessage()))
-            ctx.sendLog("saved %s gates", lgates.size());
+            ctx.sendLog("saved %s gates", count);
     }
 
     public static GateImpl find(Context ctx, String name) {
@@ -117,15 +173,7 @@ public final class Gates {
 
     public static GateImpl find(String name) {
         if (gates.containsKey(name)) return gates.get(name);
-        String lname = name.toLowerCase();
-        GateImpl gate = null;
-        for (String key : gates.keySet()) {
-            if (key.toLowerCase().startsWith(lname)) {
-                if (gate == null) gate = gates.get(key);
-                else return null;
-            }
-        }
-        return gate;
+        return names.findUnique(name);
     }
 
     public static GateImpl get(String name) {
@@ -136,12 +184,16 @@ public final class Gates {
         if (gates.containsKey(gate.getFullName()))
             throw new GateException("a gate with the same name already exists here");
         gates.put(gate.getFullName(), gate);
-        for (LocalGateImpl lg : getLocalGates())
-            lg.onGateAdded(gate);
+        index(gate);
+        if (gate instanceof LocalGateImpl)
+            ((LocalGateImpl)gate).onGateAdded(gate);
+        for (LocalGateImpl lg : getReferrers(gate.getFullName()))
+            if (lg != gate) lg.onGateAdded(gate);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
             LocalGateCreateEvent event = new LocalGateCreateEvent(lg);
             Global.plugin.getServer().getPluginManager().callEvent(event);
+            GateExporter.update(lg);
             for (Server server : Servers.getAll())
                 server.sendGateAdded(lg);
             World world = lg.getWorld();
@@ -159,21 +211,26 @@ public final class Gates {
     public static void remove(GateImpl gate) throws GateException {
         if (! gates.containsKey(gate.getFullName()))
             throw new GateException("gate not found");
-        for (LocalGateImpl lg : getLocalGates())
-            lg.onGateRemoved(gate);
+        if (gate instanceof LocalGateImpl)
+            ((LocalGateImpl)gate).onGateRemoved(gate);
+        for (LocalGateImpl lg : getReferrers(gate.getFullName()))
+            if (lg != gate) lg.onGateRemoved(gate);
         gates.remove(gate.getFullName());
+        unindex(gate, gate.getFullName());
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
             deselectGate(lg);
             lg.save(false);
+            GateExporter.remove(lg.getFullName());
             for (Server server : Servers.getAll())
                 server.sendGateRemoved(lg);
         }
     }
 
     public static void destroy(GateImpl gate, boolean unbuild) {
-        gates.remove(gate.getFullName());
-        for (LocalGateImpl lg : getLocalGates())
+        if (gates.remove(gate.getFullName()) != null)
+            unindex(gate, gate.getFullName());
+        for (LocalGateImpl lg : getReferrers(gate.getFullName()))
             lg.onGateDestroyed(gate);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
@@ -181,6 +238,7 @@ public final class Gates {
             LocalGateDestroyEvent event = new LocalGateDestroyEvent(lg);
             Global.plugin.getServer().getPluginManager().callEvent(event);
             lg.destroy(unbuild);
+            GateExporter.remove(lg.getFullName());
             for (Server server : Servers.getAll())
                 server.sendGateDestroyed(lg);
         }
@@ -200,32 +258,32 @@ public final class Gates {
 
     public static void rename(GateImpl gate, String oldFullName) {
         gates.remove(oldFullName);
+        unindex(gate, oldFullName);
         gates.put(gate.getFullName(), gate);
-        for (LocalGateImpl lg : getLocalGates())
+        index(gate);
+        for (LocalGateImpl lg : getReferrers(oldFullName))
             lg.onGateRenamed(gate, oldFullName);
         if (gate instanceof LocalGateImpl) {
             LocalGateImpl lg = (LocalGateImpl)gate;
             lg.onRenameComplete();
+            GateExporter.rename(oldFullName, lg);
             for (Server server : Servers.getAll())
                 server.sendGateRenamed(oldFullName, gate.getName());
         }
     }
 
     public static void removeGatesForWorld(World world) {
-        for (LocalGateImpl lg : getLocalGates()) {
-            if (lg.getWorld() == world)
-                try {
-                    remove(lg);
-                } catch (GateException ee) {}
-        }
+        for (LocalGateImpl lg : new ArrayList<LocalGateImpl>(getLocalGates(world)))
+            try {
+                remove(lg);
+            } catch (GateException ee) {}
     }
 
     public static void removeGatesForServer(Server server) {
-        for (RemoteGateImpl rg : getRemoteGates())
-            if (rg.getRemoteServer() == server)
-                try {
-                    remove(rg);
-                } catch (GateException ee) {}
+        for (RemoteGateImpl rg : new ArrayList<RemoteGateImpl>(getRemoteGates(server)))
+            try {
+                remove(rg);
+            } catch (GateException ee) {}
     }
 
     public static LocalGateImpl getLocalGate(String name) {
@@ -234,80 +292,224 @@ public final class Gates {
         return (LocalGateImpl)gate;
     }
 
+    // the returned sets are live, read-only views; copy them before adding or removing gates
+
     public static Set<LocalGateImpl> getLocalGates() {
-        Set<LocalGateImpl> gs = new HashSet<LocalGateImpl>();
-        for (GateImpl gate : gates.values())
-            if (gate instanceof LocalGateImpl) gs.add((LocalGateImpl)gate);
-        return gs;
+        return localGatesView;
+    }
+
+    public static Set<LocalGateImpl> getLocalGates(World world) {
+        Set<LocalGateImpl> gs = localGatesByWorld.get(world);
+        if (gs == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(gs);
     }
 
     public static Set<RemoteGateImpl> getRemoteGates() {
-        Set<RemoteGateImpl> gs = new HashSet<RemoteGateImpl>();
-        for (GateImpl gate : gates.values())
-            if (gate instanceof RemoteGateImpl) gs.add((RemoteGateImpl)gate);
-        return gs;
+        return remoteGatesView;
     }
 
+    public static Set<RemoteGateImpl> getRemoteGates(Server server) {
+        Set<RemoteGateImpl> gs = remoteGatesByServer.get(server);
+        if (gs == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(gs);
+    }
 
+    public static Set<GateImpl> getGates(GateType type) {
+        Set<GateImpl> gs = gatesByType.get(type);
+        if (gs == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(gs);
+    }
+
+    private static void index(GateImpl gate) {
+        if (gate instanceof LocalGateImpl) {
+            LocalGateImpl lg = (LocalGateImpl)gate;
+            localGates.add(lg);
+            Set<LocalGateImpl> gs = localGatesByWorld.get(lg.getWorld());
+            if (gs == null) {
+                gs = new HashSet<LocalGateImpl>();
+                localGatesByWorld.put(lg.getWorld(), gs);
+            }
+            gs.add(lg);
+        } else if (gate instanceof RemoteGateImpl) {
+            RemoteGateImpl rg = (RemoteGateImpl)gate;
+            remoteGates.add(rg);
+            Server server = (Server)rg.getRemoteServer();
+            Set<RemoteGateImpl> gs = remoteGatesByServer.get(server);
+            if (gs == null) {
+                gs = new HashSet<RemoteGateImpl>();
+                remoteGatesByServer.put(server, gs);
+            }
+            gs.add(rg);
+        }
+        Set<GateImpl> gs = gatesByType.get(gate.getType());
+        if (gs == null) {
+            gs = new HashSet<GateImpl>();
+            gatesByType.put(gate.getType(), gs);
+        }
+        gs.add(gate);
+        names.add(gate.getFullName(), gate);
+        if (gate instanceof LocalGateImpl) {
+            updateReferences((LocalGateImpl)gate);
+            updateChatReceiver((LocalGateImpl)gate);
+        }
+        Chat.invalidateRoutes();
+    }
+
+    private static void unindex(GateImpl gate, String fullName) {
+        if (gate instanceof LocalGateImpl) {
+            LocalGateImpl lg = (LocalGateImpl)gate;
+            localGates.remove(lg);
+            Set<LocalGateImpl> gs = localGatesByWorld.get(lg.getWorld());
+            if ((gs != null) && gs.remove(lg) && gs.isEmpty())
+                localGatesByWorld.remove(lg.getWorld());
+        } else if (gate instanceof RemoteGateImpl) {
+            RemoteGateImpl rg = (RemoteGateImpl)gate;
+            remoteGates.remove(rg);
+            Server server = (Server)rg.getRemoteServer();
+            Set<RemoteGateImpl> gs = remoteGatesByServer.get(server);
+            if ((gs != null) && gs.remove(rg) && gs.isEmpty())
+                remoteGatesByServer.remove(server);
+        }
+        Set<GateImpl> gs = gatesByType.get(gate.getType());
+        if ((gs != null) && gs.remove(gate) && gs.isEmpty())
+            gatesByType.remove(gate.getType());
+        names.remove(fullName, gate);
+        if (gate instanceof LocalGateImpl) {
+            Set<String> refs = references.remove((LocalGateImpl)gate);
+            if (refs != null)
+                for (String ref : refs)
+                    removeReferrer(ref, (LocalGateImpl)gate);
+            updateChatReceiver((LocalGateImpl)gate);
+        }
+        Chat.invalidateRoutes();
+    }
+
+    // called by local gates whenever receiveChat or receiveChatDistance change
+    public static void updateChatReceiver(LocalGateImpl lg) {
+        boolean ranged = localGates.contains(lg) && lg.getReceiveChat() && (lg.getReceiveChatDistance() > 0);
+        boolean changed = ranged ? rangedChatReceivers.add(lg) : rangedChatReceivers.remove(lg);
+        if (changed)
+            Listeners.update();
+    }
+
+    public static int getRangedChatReceiverCount() {
+        return rangedChatReceivers.size();
+    }
+
+    public static boolean hasRangedChatReceivers() {
+        return ! rangedChatReceivers.isEmpty();
+    }
+
+    // called by local gates whenever their links, outgoing or incoming gates change
+    public static void updateReferences(LocalGateImpl lg) {
+        if (! localGates.contains(lg)) return;
+        Chat.invalidateRoutes();
+        Set<String> newRefs = lg.getReferences();
+        Set<String> oldRefs = references.put(lg, newRefs);
+        if (oldRefs != null)
+            for (String ref : oldRefs)
+                if (! newRefs.contains(ref)) removeReferrer(ref, lg);
+        for (String ref : newRefs) {
+            if ((oldRefs != null) && oldRefs.contains(ref)) continue;
+            Set<LocalGateImpl> gs = referrers.get(ref);
+            if (gs == null) {
+                gs = new HashSet<LocalGateImpl>();
+                referrers.put(ref, gs);
+            }
+            gs.add(lg);
+        }
+    }
+
+    private static void removeReferrer(String ref, LocalGateImpl lg) {
+        Set<LocalGateImpl> gs = referrers.get(ref);
+        if ((gs != null) && gs.remove(lg) && gs.isEmpty())
+            referrers.remove(ref);
+    }
+
+    // a copy, because the callbacks change references as they go
+    private static List<LocalGateImpl> getReferrers(String fullName) {
+        Set<LocalGateImpl> gs = referrers.get(fullName);
+        if (gs == null) return Collections.emptyList();
+        return new ArrayList<LocalGateImpl>(gs);
+    }
+
+
+
+    // returns false for nearly every block that isn't near a gate with one of the
+    // roles, without touching the volumes themselves
+    public static boolean mayHaveGate(World world, int x, int y, int z, int roles) {
+        return blockMap.mayContain(world, x, y, z, roles);
+    }
+
+    // returns null if the block isn't part of any local gate
+    public static GateMap.BlockRoles findGateRoles(Location loc) {
+        return blockMap.getRoles(loc);
+    }
 
     public static LocalGateImpl findGateForPortal(Location loc) {
-        return portalMap.getGate(loc);
+        return blockMap.getGate(loc, GateMap.ROLE_PORTAL);
     }
 
     public static void addPortalVolume(Volume vol) {
-        portalMap.put(vol);
+        blockMap.put(vol, GateMap.ROLE_PORTAL | (vol.getGate().hasLiquidPortal() ? GateMap.ROLE_LIQUID : 0));
+        Listeners.update();
     }
 
     public static void removePortalVolume(LocalGateImpl gate) {
-        portalMap.removeGate(gate);
+        blockMap.removeGate(gate, GateMap.ROLE_PORTAL);
+        Listeners.update();
     }
 
     public static LocalGateImpl findGateForProtection(Location loc) {
-        return protectionMap.getGate(loc);
+        return blockMap.getGate(loc, GateMap.ROLE_BUILD);
     }
 
     public static void addProtectionVolume(Volume vol) {
-        protectionMap.put(vol);
+        blockMap.put(vol, GateMap.ROLE_BUILD);
     }
 
     public static void removeProtectionVolume(LocalGateImpl gate) {
-        protectionMap.removeGate(gate);
+        blockMap.removeGate(gate, GateMap.ROLE_BUILD);
     }
 
     public static LocalGateImpl findGateForScreen(Location loc) {
-        return screenMap.getGate(loc);
+        return blockMap.getGate(loc, GateMap.ROLE_SCREEN);
     }
 
     public static void addScreenVolume(Volume vol) {
-        screenMap.put(vol);
+        blockMap.put(vol, GateMap.ROLE_SCREEN);
     }
 
     public static void removeScreenVolume(LocalGateImpl gate) {
-        screenMap.removeGate(gate);
+        blockMap.removeGate(gate, GateMap.ROLE_SCREEN);
     }
 
     public static LocalGateImpl findGateForSwitch(Location loc) {
-        return switchMap.getGate(loc);
+        return blockMap.getGate(loc, GateMap.ROLE_SWITCH);
     }
 
     public static void addSwitchVolume(Volume vol) {
-        switchMap.put(vol);
+        blockMap.put(vol, GateMap.ROLE_SWITCH);
+        Listeners.update();
     }
 
     public static void removeSwitchVolume(LocalGateImpl gate) {
-        switchMap.removeGate(gate);
+        blockMap.removeGate(gate, GateMap.ROLE_SWITCH);
+        Listeners.update();
     }
 
     public static LocalGateImpl findGateForTrigger(Location loc) {
-        return triggerMap.getGate(loc);
+        return blockMap.getGate(loc, GateMap.ROLE_TRIGGER);
     }
 
     public static void addTriggerVolume(Volume vol) {
-        triggerMap.put(vol);
+        blockMap.put(vol, GateMap.ROLE_TRIGGER);
+        Listeners.update();
     }
 
     public static void removeTriggerVolume(LocalGateImpl gate) {
-        triggerMap.removeGate(gate);
+        blockMap.removeGate(gate, GateMap.ROLE_TRIGGER);
+        Listeners.update();
     }
 
     public static void dumpMaps() {
@@ -315,11 +517,7 @@ public final class Gates {
             Utils.info("You need to activate the debug mode first. Use: " + ChatColor.BOLD + "/trp set debug true");
             return;
         }
-        Utils.debug("portalMap=%s", portalMap);
-        Utils.debug("protectionMap=%s", protectionMap);
-        Utils.debug("screenMap=%s", screenMap);
-        Utils.debug("switchMap=%s", switchMap);
-        Utils.debug("triggerMap=%s", triggerMap);
+        Utils.debug("blockMap=%s", blockMap);
     }
 
 
@@ -339,8 +537,82 @@ public final class Gates {
 
     private static void clearLocalGates() {
         for (GateImpl gate : new HashSet<GateImpl>(gates.values()))
-            if (gate instanceof GateImpl)
+            if (gate instanceof GateImpl) {
                 gates.remove(gate.getFullName());
+                unindex(gate, gate.getFullName());
+            }
+        GateExporter.reset();
+    }
+
+    // case-insensitive prefix tree of full gate names
+    private static final class NameTrie {
+
+        private final Node root = new Node();
+
+        void add(String name, GateImpl gate) {
+            String lname = name.toLowerCase();
+            Node node = root;
+            node.count++;
+            for (int i = 0; i < lname.length(); i++) {
+                Character ch = lname.charAt(i);
+                if (node.children == null)
+                    node.children = new HashMap<Character,Node>(4);
+                Node child = node.children.get(ch);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(ch, child);
+                }
+                child.count++;
+                node = child;
+            }
+            if (node.gates == null)
+                node.gates = new ArrayList<GateImpl>(1);
+            node.gates.add(gate);
+        }
+
+        void remove(String name, GateImpl gate) {
+            String lname = name.toLowerCase();
+            Node node = lookup(lname);
+            if ((node == null) || (node.gates == null) || (! node.gates.remove(gate))) return;
+            if (node.gates.isEmpty())
+                node.gates = null;
+            node = root;
+            node.count--;
+            for (int i = 0; i < lname.length(); i++) {
+                Character ch = lname.charAt(i);
+                Node child = node.children.get(ch);
+                if (--child.count == 0) {
+                    node.children.remove(ch);
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        // returns the only gate whose name starts with the prefix, or null if there are none or several
+        GateImpl findUnique(String prefix) {
+            Node node = lookup(prefix.toLowerCase());
+            if ((node == null) || (node.count != 1)) return null;
+            while (node.gates == null)
+                node = node.children.values().iterator().next();
+            return node.gates.get(0);
+        }
+
+        private Node lookup(String lname) {
+            Node node = root;
+            for (int i = 0; (node != null) && (i < lname.length()); i++)
+                node = (node.children == null) ? null : node.children.get(lname.charAt(i));
+            return node;
+        }
+
+        private static final class Node {
+            Map<Character,Node> children = null;
+            // gates whose name ends here
+            List<GateImpl> gates = null;
+            // gates at or below this node
+            int count = 0;
+        }
+
     }
 
 }
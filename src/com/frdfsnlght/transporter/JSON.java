@@ -1,262 +1,340 @@
-/*
- * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package com.frdfsnlght.transporter;
 
 import com.frdfsnlght.transporter.api.TypeMap;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
+ * Single pass JSON encoder/decoder.
+ * <p>
+ * The decoder is lenient: it accepts single quoted strings, unquoted
+ * object keys, and leading, trailing or extra commas in objects and arrays.
+ * Objects are decoded into {@link TypeMap}s.
  *
  * @author frdfsnlght <frdfsnlght@gmail.com>
  */
 public final class JSON {
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     public static String encode(Object o) {
-        return encodeValue(o);
+        StringBuilder sb = new StringBuilder();
+        try {
+            encodeValue(o, sb);
+        } catch (IOException e) {}  // can't happen with a StringBuilder
+        return sb.toString();
+    }
+
+    public static void encode(Object o, Appendable out) throws IOException {
+        encodeValue(o, out);
     }
 
     public static Object decode(CharSequence cs) {
-        StringBuilder sb = new StringBuilder(cs);
-        int[] pos = new int[1];
-        pos[0] = 0;
-        return decodeValue(sb, pos);
+        try {
+            return new Decoder(cs, null).decodeValue();
+        } catch (IOException e) {
+            // can't happen with a CharSequence
+            throw new IllegalArgumentException(e.getMessage());
+        }
     }
 
-    private static String encodeValue(Object o) {
-        if (o == null) return "null";
-        if (o instanceof String) return encodeString((String)o);
-        if (o instanceof Number) return o.toString();
-        if (o instanceof Boolean) return ((Boolean)o) ? "true" : "false";
-        if (o instanceof Map) return encodeObject((Map)o);
-        if (o instanceof Collection) return encodeArray((Collection)o);
-        if (o.getClass().isArray()) return encodeArray((Object[])o);
+    public static Object decode(Reader reader) throws IOException {
+        return new Decoder(null, reader).decodeValue();
+    }
 
-        throw new IllegalArgumentException("unsupported JSON encodable object " + o);
+    private static void encodeValue(Object o, Appendable out) throws IOException {
+        if (o == null) out.append("null");
+        else if (o instanceof String) encodeString((String)o, out);
+        else if (o instanceof Number) out.append(o.toString());
+        else if (o instanceof Boolean) out.append(((Boolean)o) ? "true" : "false");
+        else if (o instanceof Map) encodeObject((Map)o, out);
+        else if (o instanceof Collection) encodeArray((Collection)o, out);
+        else if (o instanceof Object[]) encodeArray((Object[])o, out);
+        else
+            throw new IllegalArgumentException("unsupported JSON encodable object " + o);
     }
 
-    private static String encodeString(String s) {
-        //s = s.replaceAll("\\", "\\\\");
-        s = s.replace("\"", "\\\"");
-        s = s.replaceAll("/", "\\/");
-        s = s.replaceAll("[\b]", "\\b");
-        s = s.replaceAll("\f", "\\f");
-        s = s.replaceAll("\n", "\\n");
-        s = s.replaceAll("\r", "\\r");
-        s = s.replaceAll("\t", "\\t");
-        return "\"" + s + "\"";
+    private static void encodeString(String s, Appendable out) throws IOException {
+        out.append('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            String esc;
+            switch (ch) {
+                case '"': esc = "\\\""; break;
+                case '\\': esc = "\\\\"; break;
+                case '/': esc = "\\/"; break;
+                case '\b': esc = "\\b"; break;
+                case '\f': esc = "\\f"; break;
+                case '\n': esc = "\\n"; break;
+                case '\r': esc = "\\r"; break;
+                case '\t': esc = "\\t"; break;
+                default:
+                    if (ch >= 0x20) continue;
+                    esc = null;
+                    break;
+            }
+            // copy the run of plain characters in one go
+            if (i > start) out.append(s, start, i);
+            start = i + 1;
+            if (esc != null)
+                out.append(esc);
+            else
+                out.append("\\u00").append(HEX[(ch >> 4) & 0x0f]).append(HEX[ch & 0x0f]);
+        }
+        if (start < len) out.append(s, start, len);
+        out.append('"');
     }
 
-    private static String encodeObject(Map map) {
-        StringBuilder sb = new StringBuilder();
-        for (Object key : map.keySet()) {
-            if (sb.length() > 0) sb.append(",");
-            sb.append(encodeString(key.toString()));
-            sb.append(":");
-            sb.append(encodeValue(map.get(key)));
+    private static void encodeObject(Map map, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = true;
+        for (Object o : map.entrySet()) {
+            Map.Entry e = (Map.Entry)o;
+            if (! first) out.append(',');
+            first = false;
+            encodeString(e.getKey().toString(), out);
+            out.append(':');
+            encodeValue(e.getValue(), out);
         }
-        sb.insert(0, "{");
-        sb.append("}");
-        return sb.toString();
+        out.append('}');
     }
 
-    private static String encodeArray(Collection col) {
-        StringBuilder sb = new StringBuilder();
+    private static void encodeArray(Collection col, Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
         for (Object val : col) {
-            if (sb.length() > 0) sb.append(",");
-            sb.append(encodeValue(val));
+            if (! first) out.append(',');
+            first = false;
+            encodeValue(val, out);
         }
-        sb.insert(0, "[");
-        sb.append("]");
-        return sb.toString();
+        out.append(']');
     }
 
-    private static String encodeArray(Object[] arr) {
-        StringBuilder sb = new StringBuilder();
-        for (Object val : arr) {
-            if (sb.length() > 0) sb.append(",");
-            sb.append(encodeValue(val));
+    private static void encodeArray(Object[] arr, Appendable out) throws IOException {
+        out.append('[');
+        for (int i = 0; i < arr.length; i++) {
+            if (i > 0) out.append(',');
+            encodeValue(arr[i], out);
         }
-        sb.insert(0, "[");
-        sb.append("]");
-        return sb.toString();
+        out.append(']');
     }
 
-    private static Object decodeValue(StringBuilder sb, int[] pos) {
-        stripWhitespace(sb, pos);
-        requireChars(sb, pos);
-        char ch = sb.charAt(0);
-        switch (ch) {
-            case '{': return decodeObject(sb, pos);
-            case '[': return decodeArray(sb, pos);
-            case '"': return decodeString(sb, pos, ch);
-            case '\'': return decodeString(sb, pos, ch);
-            default:
-                if (sb.substring(0, 1).matches("[\\-0-9\\.]")) {
-                    return decodeNumber(sb, pos);
-                }
-                if (sb.substring(0, 4).equalsIgnoreCase("true")) {
-                    stripChars(sb, pos, 4);
-                    return true;
-                }
-                if (sb.substring(0, 5).equalsIgnoreCase("false")) {
-                    stripChars(sb, pos, 5);
-                    return false;
-                }
-                if (sb.substring(0, 4).equalsIgnoreCase("null")) {
-                    stripChars(sb, pos, 4);
-                    return null;
-                }
-                throw new IllegalArgumentException("unexpected JSON syntax at " + pos[0] + " (" + sb.substring(0, 200) + ")");
+    // Reads from either a CharSequence or a Reader, one character at a time.
+    private static final class Decoder {
+
+        private final CharSequence cs;
+        private final Reader reader;
+        private final StringBuilder str = new StringBuilder();
+        private int pos = 0;
+        private int peeked = -2;
+
+        Decoder(CharSequence cs, Reader reader) {
+            this.cs = cs;
+            this.reader = reader;
+        }
+
+        int peek() throws IOException {
+            if (cs != null)
+                return (pos < cs.length()) ? cs.charAt(pos) : -1;
+            if (peeked == -2)
+                peeked = reader.read();
+            return peeked;
+        }
+
+        char next() throws IOException {
+            int ch = peek();
+            if (ch == -1)
+                throw error("unexpected end");
+            pos++;
+            peeked = -2;
+            return (char)ch;
+        }
+
+        void skipWhitespace() throws IOException {
+            int ch;
+            while (((ch = peek()) != -1) && Character.isWhitespace(ch)) next();
         }
-    }
 
-    private static TypeMap decodeObject(StringBuilder sb, int[] pos) {
-        TypeMap map = new TypeMap();
-        stripChars(sb, pos, 1);
-        String key;
-        for (;;) {
-            stripWhitespace(sb, pos);
-            requireChars(sb, pos);
-            char ch = sb.charAt(0);
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException(msg + " in JSON at " + pos);
+        }
+
+        Object decodeValue() throws IOException {
+            skipWhitespace();
+            int ch = peek();
             switch (ch) {
-                case '}':
-                    stripChars(sb, pos, 1);
-                    return map;
+                case -1: throw error("unexpected end");
+                case '{': return decodeObject();
+                case '[': return decodeArray();
                 case '"':
-                // allow non-compliant string keys with single quotes
                 case '\'':
-                    key = decodeString(sb, pos, ch);
-                    break;
-                case ',':
-                    stripChars(sb, pos, 1);
-                    // this will allow leading, trailing, and extra commas
-                    continue;
+                    next();
+                    return decodeString((char)ch);
+                case '-': case '.':
+                case '0': case '1': case '2': case '3': case '4':
+                case '5': case '6': case '7': case '8': case '9':
+                    return decodeNumber();
+                case 't': case 'T':
+                    expectWord("true");
+                    return true;
+                case 'f': case 'F':
+                    expectWord("false");
+                    return false;
+                case 'n': case 'N':
+                    expectWord("null");
+                    return null;
                 default:
-                    // allow non-compliant string keys with no quotes
-                    key = decodeString(sb, pos, ':');
-                    break;
+                    throw error("unexpected character '" + (char)ch + "'");
             }
-            stripWhitespace(sb, pos);
-            requireChars(sb, pos);
-            ch = sb.charAt(0);
-            if (ch == ':')
-                stripChars(sb, pos, 1);
-            else
-                throw new IllegalArgumentException("expected object key/value separator in JSON at " + pos[0]);
-            map.set(key, decodeValue(sb, pos));
         }
-    }
 
-    @SuppressWarnings("unchecked")
-    private static List decodeArray(StringBuilder sb, int[] pos) {
-        List list = new ArrayList();
-        stripChars(sb, pos, 1);
-        for (;;) {
-            stripWhitespace(sb, pos);
-            requireChars(sb, pos);
-            char ch = sb.charAt(0);
-            switch (ch) {
-                case ']':
-                    stripChars(sb, pos, 1);
-                    return list;
-                case ',':
-                    stripChars(sb, pos, 1);
-                    // this will allow leading, trailing, and extra commas
-                    continue;
+        private void expectWord(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++)
+                if (Character.toLowerCase(next()) != word.charAt(i))
+                    throw error("expected '" + word + "'");
+        }
+
+        private TypeMap decodeObject() throws IOException {
+            TypeMap map = new TypeMap();
+            next();
+            String key;
+            for (;;) {
+                skipWhitespace();
+                int ch = peek();
+                switch (ch) {
+                    case -1:
+                        throw error("unexpected end");
+                    case '}':
+                        next();
+                        return map;
+                    case '"':
+                    // allow non-compliant string keys with single quotes
+                    case '\'':
+                        next();
+                        key = decodeString((char)ch);
+                        break;
+                    case ',':
+                        next();
+                        // this will allow leading, trailing, and extra commas
+                        continue;
+                    default:
+                        // allow non-compliant string keys with no quotes
+                        key = decodeString(':');
+                        break;
+                }
+                skipWhitespace();
+                if (peek() != ':')
+                    throw error("expected object key/value separator");
+                next();
+                map.set(key, decodeValue());
             }
-            list.add(decodeValue(sb, pos));
         }
-    }
 
-    private static String decodeString(StringBuilder sb, int[] pos, char quote) {
-        StringBuilder str = new StringBuilder();
-        if (quote != ':') stripChars(sb, pos, 1);
-        for (;;) {
-            requireChars(sb, pos);
-            char ch = sb.charAt(0);
-            if (ch == quote) {
-                if (quote != ':') stripChars(sb, pos, 1);
-                return str.toString();
+        @SuppressWarnings("unchecked")
+        private List decodeArray() throws IOException {
+            List list = new ArrayList();
+            next();
+            for (;;) {
+                skipWhitespace();
+                switch (peek()) {
+                    case -1:
+                        throw error("unexpected end");
+                    case ']':
+                        next();
+                        return list;
+                    case ',':
+                        next();
+                        // this will allow leading, trailing, and extra commas
+                        continue;
+                }
+                list.add(decodeValue());
             }
-            if (ch == '\\') {
-                stripChars(sb, pos, 1);
-                requireChars(sb, pos);
-                ch = stripChars(sb, pos, 1).charAt(0);
+        }
+
+        // the opening quote has already been consumed; an unquoted key ends
+        // at, but doesn't consume, the ':'
+        private String decodeString(char quote) throws IOException {
+            str.setLength(0);
+            for (;;) {
+                if ((quote == ':') && (peek() == ':'))
+                    return str.toString();
+                char ch = next();
+                if (ch == quote)
+                    return str.toString();
+                if (ch != '\\') {
+                    str.append(ch);
+                    continue;
+                }
+                ch = next();
                 switch (ch) {
-                    case 'b': str.append("\b"); break;
-                    case 'f': str.append("\f"); break;
-                    case 'n': str.append("\n"); break;
-                    case 'r': str.append("\r"); break;
-                    case 't': str.append("\t"); break;
+                    case 'b': str.append('\b'); break;
+                    case 'f': str.append('\f'); break;
+                    case 'n': str.append('\n'); break;
+                    case 'r': str.append('\r'); break;
+                    case 't': str.append('\t'); break;
                     case 'u':
-                        stripChars(sb, pos, 1);
-                        String hex = stripChars(sb, pos, 4).toString();
-                        if (! hex.matches("^[a-f0-9]{4}$"))
-                            throw new IllegalArgumentException("expected hexidecimal digits in JSON at " + pos[0]);
-                        str.append(Character.toChars(Integer.parseInt(hex, 16)));
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+                            if (digit == -1)
+                                throw error("expected hexidecimal digits");
+                            code = (code << 4) + digit;
+                        }
+                        str.append((char)code);
                         break;
                     default:
                         // any '\' preceded character will be replaced with the character
                         str.append(ch);
                         break;
                 }
-            } else
-                str.append(stripChars(sb, pos, 1));
-        }
-    }
-
-    private static Pattern numberPattern = Pattern.compile("^(\\-?[0-9]*\\.?[0-9]*[eE]?[\\+\\-]?[0-9]*)");
-
-    private static Number decodeNumber(StringBuilder sb, int[] pos) {
-        Matcher matcher = numberPattern.matcher(sb);
-        if (matcher.find()) {
-            String num = matcher.group(1);
-            sb.delete(0, num.length());
-            if (num.contains("."))
-                return Double.parseDouble(num);
-            else
-                return Long.parseLong(num);
+            }
         }
-        throw new IllegalArgumentException("expected number in JSON at " + pos[0]);
-    }
 
-    private static void stripWhitespace(StringBuilder sb, int[] pos) {
-        while ((sb.length() > 0) && Character.isWhitespace(sb.charAt(0))) {
-            sb.deleteCharAt(0);
-            pos[0]++;
+        private Number decodeNumber() throws IOException {
+            str.setLength(0);
+            boolean isDouble = false;
+            for (;;) {
+                int ch = peek();
+                if ((ch >= '0') && (ch <= '9')) {}
+                else if ((ch == '-') || (ch == '+')) {}
+                else if ((ch == '.') || (ch == 'e') || (ch == 'E'))
+                    isDouble = true;
+                else
+                    break;
+                str.append(next());
+            }
+            String num = str.toString();
+            try {
+                if (isDouble)
+                    return Double.parseDouble(num);
+                else
+                    return Long.parseLong(num);
+            } catch (NumberFormatException e) {
+                throw error("expected number");
+            }
         }
-    }
-
-    private static void requireChars(StringBuilder sb, int[] pos) {
-        if (sb.length() == 0)
-            throw new IllegalArgumentException("unexpected end of JSON at " + pos[0]);
-    }
 
-    private static String stripChars(StringBuilder sb, int[] pos, int count) {
-        if (count > sb.length())
-            throw new IllegalArgumentException("expected " + count + " characters at end of JSON at " + pos[0]);
-        String ret = sb.substring(0, count);
-        pos[0] += count;
-        sb.delete(0, count);
-        return ret;
     }
 
     private JSON() {}
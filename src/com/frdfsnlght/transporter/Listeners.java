@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+/**
+ * Registers the handlers for high frequency events only while some gate
+ * needs them.
+ * <p>
+ * Move events matter only while a portal is open, liquid flow only while a
+ * portal made of water or lava is open, and redstone and interaction only
+ * while a gate has triggers or switches, or while a player is tracing their
+ * interactions with "debug interact". The handlers themselves stay in
+ * the regular listener classes; the listeners here just forward to them.
+ * Player positions are tracked for chat delivery only while some gate
+ * receives chat within a limited distance.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class Listeners {
+
+    private static BlockListenerImpl blockListener;
+    private static PlayerListenerImpl playerListener;
+    private static VehicleListenerImpl vehicleListener;
+
+    private static final Listener portalListener = new PortalListener();
+    private static final Listener flowListener = new FlowListener();
+    private static final Listener triggerListener = new TriggerListener();
+    private static final Listener chatListener = new ChatListener();
+
+    private static boolean started = false;
+    private static boolean portalRegistered = false;
+    private static boolean flowRegistered = false;
+    private static boolean triggerRegistered = false;
+    private static boolean chatRegistered = false;
+
+    public static void start(BlockListenerImpl block, PlayerListenerImpl player, VehicleListenerImpl vehicle) {
+        blockListener = block;
+        playerListener = player;
+        vehicleListener = vehicle;
+        started = true;
+        update();
+    }
+
+    public static void stop() {
+        if (! started) return;
+        started = false;
+        portalRegistered = register(portalListener, portalRegistered, false);
+        flowRegistered = register(flowListener, flowRegistered, false);
+        triggerRegistered = register(triggerListener, triggerRegistered, false);
+        chatRegistered = register(chatListener, chatRegistered, false);
+        Players.stopTracking();
+    }
+
+    // called from the main thread whenever portal, trigger or switch volumes
+    // change, a local gate's chat receiving changes, or the interaction
+    // test player changes
+    public static void update() {
+        if (! started) return;
+        GateMap map = Gates.blockMap;
+        boolean portal = map.hasRole(GateMap.ROLE_PORTAL);
+        if (portal && (! portalRegistered))
+            // locks may have gone stale while nobody was watching
+            ReservationImpl.removeExpiredGateLocks();
+        portalRegistered = register(portalListener, portalRegistered, portal);
+        flowRegistered = register(flowListener, flowRegistered, map.hasRole(GateMap.ROLE_LIQUID));
+        triggerRegistered = register(triggerListener, triggerRegistered,
+                map.hasRole(GateMap.ROLE_TRIGGER) || map.hasRole(GateMap.ROLE_SWITCH) ||
+                (PlayerListenerImpl.testPlayer != null));
+        boolean chat = Gates.hasRangedChatReceivers();
+        if (chat != chatRegistered) {
+            if (chat)
+                Players.startTracking();
+            else
+                Players.stopTracking();
+        }
+        chatRegistered = register(chatListener, chatRegistered, chat);
+    }
+
+    private static boolean register(Listener listener, boolean registered, boolean wanted) {
+        if (wanted == registered) return registered;
+        if (wanted) {
+            Global.plugin.getServer().getPluginManager().registerEvents(listener, Global.plugin);
+            Utils.debug("registered %s", listener.getClass().getSimpleName());
+        } else {
+            HandlerList.unregisterAll(listener);
+            Utils.debug("unregistered %s", listener.getClass().getSimpleName());
+        }
+        return wanted;
+    }
+
+    public static final class PortalListener implements Listener {
+
+        @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+        public void onPlayerMove(PlayerMoveEvent event) {
+            playerListener.onPlayerMove(event);
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onVehicleMove(VehicleMoveEvent event) {
+            vehicleListener.onVehicleMove(event);
+        }
+
+    }
+
+    public static final class FlowListener implements Listener {
+
+        @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+        public void onBlockFromTo(BlockFromToEvent event) {
+            blockListener.onBlockFromTo(event);
+        }
+
+    }
+
+    public static final class TriggerListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onBlockRedstone(BlockRedstoneEvent event) {
+            blockListener.onBlockRedstone(event);
+        }
+
+        @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+        public void onPlayerInteract(PlayerInteractEvent event) {
+            playerListener.onPlayerInteract(event);
+        }
+
+    }
+
+    public static final class ChatListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onPlayerMove(PlayerMoveEvent event) {
+            Players.track(event.getPlayer(), event.getTo());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onPlayerTeleport(PlayerTeleportEvent event) {
+            Players.track(event.getPlayer(), event.getTo());
+        }
+
+        // riding players don't get move events of their own
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onVehicleMove(VehicleMoveEvent event) {
+            if (event.getVehicle().isEmpty()) return;
+            for (Entity passenger : event.getVehicle().getPassengers())
+                if (passenger instanceof Player)
+                    Players.track((Player)passenger, event.getTo());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+            Players.track(event.getPlayer(), event.getPlayer().getLocation());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerRespawn(PlayerRespawnEvent event) {
+            Players.track(event.getPlayer(), event.getRespawnLocation());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerJoin(PlayerJoinEvent event) {
+            Players.track(event.getPlayer(), event.getPlayer().getLocation());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerQuit(PlayerQuitEvent event) {
+            Players.untrack(event.getPlayer());
+        }
+
+    }
+
+}
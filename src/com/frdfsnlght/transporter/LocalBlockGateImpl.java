@@ -58,6 +58,8 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     private List<GateBlock> blocks;
     private List<SavedBlock> savedBlocks = null;
+    // what the screens were last drawn with
+    private List<String> screenLines = null;
 
     // creation from file
     public LocalBlockGateImpl(World world, TypeMap conf) throws GateException {
@@ -175,6 +177,16 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
     @Override
     public GateType getType() { return GateType.BLOCK; }
 
+    @Override
+    public boolean hasLiquidPortal() {
+        for (GateBlock gb : blocks) {
+            if (! gb.getDetail().isOpenable()) continue;
+            Material m = gb.getDetail().getOpenBlock().getType();
+            if ((m == Material.WATER) || (m == Material.LAVA)) return true;
+        }
+        return false;
+    }
+
     @Override
     public Location getSpawnLocation(Location fromLocation, BlockFace fromDirection) {
         List<GateBlock> gbs = new ArrayList<GateBlock>();
@@ -233,7 +245,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             gb.getDetail().isBuildable() &&
             ((! portalOpen) || (! gb.getDetail().isPortal())))
             gb.getDetail().getBuildBlock().build(loc);
-        updateScreens();
+        Screens.update(this, true);
     }
 
     public void rebuild() {
@@ -242,7 +254,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             if (portalOpen && gb.getDetail().isPortal()) continue;
             gb.getDetail().getBuildBlock().build(gb.getLocation());
         }
-        updateScreens();
+        Screens.update(this, true);
     }
 
     @Override
@@ -264,11 +276,12 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             Gates.addPortalVolume(getPortalVolume());
         if (protect)
             Gates.addProtectionVolume(getBuildVolume());
-        updateScreens();
+        Screens.update(this, true);
     }
 
     @Override
     protected void onRemove() {
+        Screens.cancel(this);
         Gates.removePortalVolume(this);
         Gates.removeProtectionVolume(this);
         Gates.removeScreenVolume(this);
@@ -278,6 +291,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
 
     @Override
     protected void onDestroy(boolean unbuild) {
+        Screens.cancel(this);
         Gates.removePortalVolume(this);
         Gates.removeProtectionVolume(this);
         Gates.removeScreenVolume(this);
@@ -414,12 +428,17 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
     }
 
     private void updateScreens() {
+        Screens.update(this, false);
+    }
+
+    // called by Screens, returns the number of signs written
+    int drawScreens(boolean force) {
         Set<GateBlock> screens = new HashSet<GateBlock>();
         for (GateBlock gb : blocks) {
             if (! gb.getDetail().isScreen()) continue;
             screens.add(gb);
         }
-        if (screens.isEmpty()) return;
+        if (screens.isEmpty()) return 0;
 
         String format;
         GateImpl toGate = null;
@@ -468,6 +487,8 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             }
             lines.addAll(Arrays.asList(NEWLINE_PATTERN.split(format)));
         }
+        if ((! force) && lines.equals(screenLines)) return 0;
+        screenLines = lines;
 
         for (GateBlock gb : screens) {
             Block block = gb.getLocation().getBlock();
@@ -481,6 +502,7 @@ public final class LocalBlockGateImpl extends LocalGateImpl implements LocalBloc
             }
             sign.update();
         }
+        return screens.size();
     }
 
     private void openPortal() {
@@ -62,6 +62,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             throw new GateException("unable to read %s", file.getAbsoluteFile());
         TypeMap conf = new TypeMap(file);
         conf.load();
+        return load(world, conf);
+    }
+
+    public static LocalGateImpl load(World world, TypeMap conf) throws GateException {
         String typeStr = conf.getString("type", "BLOCK");
         GateType type;
         try {
@@ -173,6 +177,10 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     protected boolean receiveChat;
     protected String receiveChatFilter;
     protected int receiveChatDistance;
+    // compiled forms of the chat filters above
+    private Pattern sendChatPattern;
+    private Pattern sendChatFormatPattern;
+    private Pattern receiveChatPattern;
     protected boolean requireAllowedItems;
     protected boolean receiveInventory;
     protected boolean deleteInventory;
@@ -342,6 +350,9 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         receiveChat = conf.getBoolean("receiveChat", false);
         receiveChatFilter = conf.getString("receiveChatFilter");
         receiveChatDistance = conf.getInt("receiveChatDistance", 1000);
+        sendChatPattern = compileChatFilter(sendChatFilter);
+        sendChatFormatPattern = compileChatFilter(sendChatFormatFilter);
+        receiveChatPattern = compileChatFilter(receiveChatFilter);
         requireAllowedItems = conf.getBoolean("requireAllowedItems", true);
         receiveInventory = conf.getBoolean("receiveInventory", true);
         deleteInventory = conf.getBoolean("deleteInventory", false);
@@ -470,6 +481,11 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     protected abstract void calculateCenter();
 
+    // area portals can hold water or lava anywhere inside them
+    public boolean hasLiquidPortal() {
+        return true;
+    }
+
     // Gate interface
 
     public String getLocalName() {
@@ -505,11 +521,13 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             if (incoming.contains(originName)) return;
             incoming.add(originName);
             dirty = true;
+            Gates.updateReferences(this);
         }
 
         // 2 new
         portalOpen = true;
         portalOpenTime = System.currentTimeMillis();
+        dirty = true;
 
         onOpen();
 
@@ -519,6 +537,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
                 outgoing = null;
             else
                 outgoing = getLinks().get(0);
+            dirty = true;
             onDestinationChanged();
         }
         if (outgoing != null) {
@@ -546,13 +565,14 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
         incoming.remove(originName);
         dirty = true;
+        Gates.updateReferences(this);
         closeIfAllowed();
     }
 
     // End interfaces and implementations
 
     public void onRenameComplete() {
-        file.delete();
+        GatePersister.delete(file);
         generateFile();
         save(true);
         onNameChanged();
@@ -595,6 +615,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             incoming.remove(gateName);
             dirty = true;
         }
+        Gates.updateReferences(this);
         closeIfAllowed();
     }
 
@@ -604,6 +625,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (links.contains(oldFullName)) {
             links.set(links.indexOf(oldFullName), newName);
             dirty = true;
+            GateExporter.update(this);
         }
         if (oldFullName.equals(outgoing)) {
             outgoing = newName;
@@ -615,14 +637,12 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             incoming.add(newName);
             dirty = true;
         }
+        Gates.updateReferences(this);
     }
 
     public void destroy(boolean unbuild) {
         close();
-        if (! file.delete())
-            Utils.warning("unable to delete gate file %s", file.getAbsolutePath());
-        else
-            Utils.info("deleted gate file %s", file.getAbsolutePath());
+        GatePersister.delete(file);
         file = null;
         onDestroy(unbuild);
     }
@@ -659,6 +679,8 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
         portalOpen = true;
         portalOpenTime = System.currentTimeMillis();
+        dirty = true;
+        Chat.invalidateRoutes();
         gate.attach(this);
         onOpen();
         onDestinationChanged();
@@ -680,9 +702,12 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void close() {
         if (! portalOpen) return;
         portalOpen = false;
+        dirty = true;
+        Chat.invalidateRoutes();
 
         ReservationImpl.removeCountdowns(this);
         incoming.clear();
+        Gates.updateReferences(this);
         onClose();
         onDestinationChanged();
 
@@ -698,12 +723,16 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     }
 
     
+    public boolean isDirty() {
+        return dirty;
+    }
+
     public void save(boolean force) {
         if ((! dirty) && (! force)) return;
         if (file == null) return;
         dirty = false;
 
-        TypeMap conf = new TypeMap(file);
+        TypeMap conf = new TypeMap();
         conf.set("name", name);
         conf.set("type", getType().toString());
         conf.set("creatorUUID", creator.getUniqueId().toString());
@@ -744,7 +773,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         conf.set("deleteInventory", deleteInventory);
         conf.set("receiveGameMode", receiveGameMode);
         conf.set("allowGameModes", allowGameModes);
-        conf.set("gameMode", gameMode);
+        conf.set("gameMode", (gameMode == null) ? null : gameMode.toString());
         conf.set("receiveXP", receiveXP);
         conf.set("receivePotions", receivePotions);
         conf.set("requireAllowedPotions", requireAllowedPotions);
@@ -785,10 +814,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
         onSave(conf);
 
-        File parent = file.getParentFile();
-        if (! parent.exists())
-            parent.mkdirs();
-        conf.save();
+        GatePersister.write(file, conf);
     }
 
     protected void validate() throws GateException {
@@ -1040,6 +1066,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setSendChat(boolean b) {
         sendChat = b;
         dirty = true;
+        Chat.invalidateRoutes();
     }
 
     
@@ -1049,16 +1076,19 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     
     public void setSendChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFilter = s;
+        sendChatPattern = p;
+        Chat.invalidateRoutes();
     }
 
     
@@ -1068,16 +1098,19 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     
     public void setSendChatFormatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFormatFilter = s;
+        sendChatFormatPattern = p;
+        Chat.invalidateRoutes();
     }
 
     
@@ -1089,6 +1122,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setSendChatDistance(int i) {
         sendChatDistance = i;
         dirty = true;
+        Chat.invalidateRoutes();
     }
 
     
@@ -1100,6 +1134,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setReceiveChat(boolean b) {
         receiveChat = b;
         dirty = true;
+        Gates.updateChatReceiver(this);
     }
 
     
@@ -1109,16 +1144,18 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
 
     
     public void setReceiveChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         receiveChatFilter = s;
+        receiveChatPattern = p;
     }
 
     
@@ -1130,6 +1167,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     public void setReceiveChatDistance(int i) {
         receiveChatDistance = i;
         dirty = true;
+        Gates.updateChatReceiver(this);
     }
 
     
@@ -1610,6 +1648,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     
     public void onOptionSet(Context ctx, String name, String value) {
         ctx.send("option '%s' set to '%s' for gate '%s'", name, value, getName(ctx));
+        GateExporter.update(this);
     }
 
     
@@ -1620,20 +1659,25 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
     /* End options */
 
     public boolean canSendChat(String message, String format) {
-        if ((! sendChat) || (message == null)) return false;
-        if (sendChatFilter != null)
-            if (! Pattern.compile(sendChatFilter).matcher(message).find()) return false;
-        if (sendChatFormatFilter != null) {
-            if (format == null) return false;
-            if (! Pattern.compile(sendChatFormatFilter).matcher(format).find()) return false;
-        }
-        return true;
+        if (! sendChat) return false;
+        return Chat.matchesSendFilters(sendChatPattern, sendChatFormatPattern, message, format);
     }
 
     public boolean canReceiveChat(String message) {
         if ((! receiveChat) || (message == null)) return false;
-        if (receiveChatFilter == null) return true;
-        return Pattern.compile(receiveChatFilter).matcher(message).find();
+        if (receiveChatPattern == null) return true;
+        return receiveChatPattern.matcher(message).find();
+    }
+
+    // filters saved before they were checked on the way in are ignored rather than failing every message
+    private Pattern compileChatFilter(String s) {
+        if (s == null) return null;
+        try {
+            return Pattern.compile(s);
+        } catch (PatternSyntaxException e) {
+            Utils.warning("ignoring invalid chat filter '%s' for gate '%s'", s, getLocalName());
+            return null;
+        }
     }
 
 
@@ -1663,6 +1707,14 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         return links.contains(link);
     }
 
+    // full names of the gates this one links to, targets or is attached to
+    public Set<String> getReferences() {
+        Set<String> refs = new HashSet<String>(links);
+        refs.addAll(incoming);
+        if (outgoing != null) refs.add(outgoing);
+        return refs;
+    }
+
     public void addLink(Context ctx, String toGateName) throws TransporterException {
         Permissions.require(ctx.getPlayer(), "trp.gate.link.add." + getLocalName());
 
@@ -1709,6 +1761,8 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             outgoing = link;
         onDestinationChanged();
         dirty = true;
+        Gates.updateReferences(this);
+        GateExporter.update(this);
         return true;
     }
 
@@ -1732,6 +1786,8 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         onDestinationChanged();
         closeIfAllowed();
         dirty = true;
+        Gates.updateReferences(this);
+        GateExporter.update(this);
         return true;
     }
 
@@ -1773,6 +1829,7 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
             dirty = true;
         }
 
+        Chat.invalidateRoutes();
         onDestinationChanged();
 
         // attach to the next gate
@@ -2117,16 +2174,21 @@ public abstract class LocalGateImpl extends GateImpl implements LocalGate, Optio
         if (! sendChat) return false;
         if (location.getWorld() != world) return false;
         if (sendChatDistance <= 0) return true;
-        Vector there = new Vector(location.getX(), location.getY(), location.getZ());
-        return (there.distance(center) <= sendChatDistance);
+        return isWithin(location, sendChatDistance);
     }
 
     public boolean isInChatReceiveProximity(Location location) {
         if (! receiveChat) return false;
         if (location.getWorld() != world) return false;
         if (receiveChatDistance <= 0) return true;
-        Vector there = new Vector(location.getX(), location.getY(), location.getZ());
-        return (there.distance(center) <= receiveChatDistance);
+        return isWithin(location, receiveChatDistance);
+    }
+
+    private boolean isWithin(Location location, int distance) {
+        double dx = location.getX() - center.getX();
+        double dy = location.getY() - center.getY();
+        double dz = location.getZ() - center.getZ();
+        return ((dx * dx) + (dy * dy) + (dz * dz)) <= ((double)distance * distance);
     }
 
     protected void generateFile() {
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+
+/**
+ * Asynchronous log pipeline behind the logging methods in {@link Utils}.
+ * <p>
+ * Callers only capture the format string and its arguments. Formatting,
+ * color stripping and the write to the server log happen on a background
+ * thread. Debug events are also kept, unformatted, in a ring buffer that
+ * can be dumped into a debug submission, so recent debug history is
+ * available even when debug output is turned off.
+ * <p>
+ * Arguments are kept by reference and only formatted when the event is
+ * written or dumped. The exceptions are entities, worlds, blocks, locations,
+ * collections and maps (which includes {@link com.frdfsnlght.transporter.api.TypeMap}):
+ * those are turned into strings when the event is logged, on the caller's
+ * thread, so events don't keep players or worlds alive and show them as
+ * they were at that moment.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class Log {
+
+    private static final int QUEUE_SIZE = 4096;
+
+    private static final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(QUEUE_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final AtomicLong debugSequence = new AtomicLong();
+    private static volatile AtomicReferenceArray<Event> debugRing = null;
+
+    private static volatile Thread appenderThread = null;
+
+    // called from the main thread
+    public static void start() {
+        if (appenderThread != null) return;
+        appenderThread = new Thread(new Runnable() {
+            public void run() {
+                Log.run();
+            }
+        }, Global.pluginName + " Log");
+        appenderThread.setDaemon(true);
+        appenderThread.start();
+    }
+
+    // called from the main thread
+    public static void stop() {
+        Thread t = appenderThread;
+        if (t == null) return;
+        appenderThread = null;
+        t.interrupt();
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {}
+        flush();
+    }
+
+    public static void log(Level level, String prefix, Throwable t, String msg, Object[] args) {
+        Event e = new Event(level, prefix, t, msg, args);
+        if (appenderThread == null) {
+            emit(e);
+            return;
+        }
+        if (queue.offer(e)) return;
+        // never lose warnings or errors, write them from this thread instead
+        if (level.intValue() >= Level.WARNING.intValue())
+            emit(e);
+        else
+            dropped.incrementAndGet();
+    }
+
+    public static void debug(String prefix, String msg, Object[] args) {
+        Settings settings = Config.getSettings();
+        if ((! settings.debug) && (settings.debugBufferSize == 0)) return;
+        Event e = new Event(Level.INFO, prefix, null, msg, args);
+        if (settings.debugBufferSize > 0)
+            record(e, settings.debugBufferSize);
+        if (settings.debug) {
+            if (appenderThread == null)
+                emit(e);
+            else if (! queue.offer(e))
+                dropped.incrementAndGet();
+        }
+    }
+
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    // can be called from any thread
+    public static void dumpDebug(PrintWriter writer) {
+        AtomicReferenceArray<Event> ring = debugRing;
+        if (ring == null) {
+            writer.println("debug buffer is disabled");
+            return;
+        }
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        long end = debugSequence.get();
+        long start = Math.max(0, end - ring.length());
+        for (long seq = start; seq < end; seq++) {
+            Event e = ring.get((int)(seq % ring.length()));
+            if (e == null) continue;
+            String msg = e.format();
+            if (msg == null) continue;
+            writer.format("%s [%s] %s%s\n", fmt.format(new Date(e.time)), e.thread, e.prefix, msg);
+        }
+        long d = dropped.get();
+        if (d > 0)
+            writer.format("%d log messages were dropped because the log queue was full\n", d);
+    }
+
+    private static void record(Event e, int size) {
+        AtomicReferenceArray<Event> ring = debugRing;
+        if ((ring == null) || (ring.length() != size)) {
+            ring = new AtomicReferenceArray<Event>(size);
+            debugRing = ring;
+        }
+        ring.set((int)(debugSequence.getAndIncrement() % size), e);
+    }
+
+    // called from the appender thread
+    private static void run() {
+        while (appenderThread == Thread.currentThread()) {
+            try {
+                Event e = queue.poll(1, TimeUnit.SECONDS);
+                if (e != null) emit(e);
+            } catch (InterruptedException ie) {
+                break;
+            }
+        }
+    }
+
+    private static void flush() {
+        Event e;
+        while ((e = queue.poll()) != null)
+            emit(e);
+    }
+
+    private static void emit(Event e) {
+        String msg = e.format();
+        if (msg == null) return;
+        Utils.logger.log(e.level, "[" + Global.pluginName + "] " + e.prefix + msg, e.throwable);
+    }
+
+    private static final class Event {
+
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Level level;
+        final String prefix;
+        final Throwable throwable;
+        final String msg;
+        final Object[] args;
+
+        Event(Level level, String prefix, Throwable throwable, String msg, Object[] args) {
+            this.level = level;
+            this.prefix = prefix;
+            this.throwable = throwable;
+            this.msg = msg;
+            this.args = snapshot(args);
+        }
+
+        private static Object[] snapshot(Object[] args) {
+            if (args == null) return null;
+            Object[] copy = null;
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if (! needsSnapshot(arg)) continue;
+                if (copy == null) copy = args.clone();
+                try {
+                    copy[i] = String.valueOf(arg);
+                } catch (RuntimeException e) {
+                    copy[i] = "(" + arg.getClass().getName() + ": " + e.getMessage() + ")";
+                }
+            }
+            return (copy == null) ? args : copy;
+        }
+
+        // mutable or tied to the server, so can't be formatted later on another thread
+        private static boolean needsSnapshot(Object arg) {
+            return (arg instanceof Entity) ||
+                   (arg instanceof World) ||
+                   (arg instanceof Block) ||
+                   (arg instanceof Location) ||
+                   (arg instanceof Collection) ||
+                   (arg instanceof Map);
+        }
+
+        // returns null if there's nothing to log
+        String format() {
+            String s = msg;
+            if ((args != null) && (args.length > 0)) {
+                try {
+                    s = String.format(s, args);
+                } catch (RuntimeException e) {
+                    s = s + " (unable to format: " + e.getMessage() + ")";
+                }
+            }
+            s = ChatColor.stripColor(s);
+            if (s.isEmpty()) return null;
+            return s;
+        }
+
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import com.frdfsnlght.transporter.api.TypeMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and parses YAML files in parallel.
+ * <p>
+ * Only the file reading and YAML parsing happen on the fork-join pool.
+ * Turning the parsed maps into designs or gates touches Bukkit and is left
+ * to the caller on the main thread.
+ * <p>
+ * Parsed files are remembered in a cache in the plugin's data folder,
+ * keyed by path and checked against the file's modification time, size
+ * and checksum. A file that hasn't changed since it was cached is decoded
+ * from the cache's compact encoding instead of being parsed as YAML.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class ParallelLoader {
+
+    // don't bother with the pool for fewer files than this
+    private static final int MIN_PARALLEL = 4;
+
+    private static final String CACHE_FILE = "load.cache";
+    private static final int CACHE_MAGIC = 0x54524343;
+    private static final int CACHE_VERSION = 1;
+
+    // by absolute path
+    private static ConcurrentMap<String,CacheEntry> cache = null;
+    private static volatile boolean cacheDirty = false;
+
+    // called from the main thread, results are in the same order as the files
+    public static List<Result> load(File[] files) {
+        if (cache == null) loadCache();
+        List<Result> results = loadFiles(files);
+        if (cacheDirty) saveCache();
+        return results;
+    }
+
+    private static List<Result> loadFiles(File[] files) {
+        List<Result> results = new ArrayList<Result>(files.length);
+        if (files.length < MIN_PARALLEL) {
+            for (File file : files)
+                results.add(parse(file));
+            return results;
+        }
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(files.length);
+        for (final File file : files)
+            tasks.add(new Callable<Result>() {
+                public Result call() {
+                    return parse(file);
+                }
+            });
+        List<Future<Result>> futures = ForkJoinPool.commonPool().invokeAll(tasks);
+        for (int i = 0; i < files.length; i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new Result(files[i], null, e));
+            } catch (ExecutionException e) {
+                results.add(new Result(files[i], null, e.getCause()));
+            }
+        }
+        return results;
+    }
+
+    private static Result parse(File file) {
+        if (! file.canRead())
+            return new Result(file, null, new IllegalStateException("unable to read " + file.getAbsolutePath()));
+        try {
+            long modified = file.lastModified();
+            byte[] data = Files.readAllBytes(file.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            String path = file.getAbsolutePath();
+
+            CacheEntry entry = cache.get(path);
+            if ((entry != null) && entry.matches(modified, data.length, crc.getValue())) {
+                try {
+                    TypeMap conf = TypeMap.decode(entry.encoded);
+                    conf.setFile(file);
+                    return new Result(file, conf, null);
+                } catch (RuntimeException e) {
+                    Utils.debug("ignoring bad cache entry for %s: %s", path, e.getMessage());
+                }
+            }
+
+            TypeMap conf = new TypeMap(file);
+            conf.load(new ByteArrayInputStream(data));
+            try {
+                cache.put(path, new CacheEntry(modified, data.length, crc.getValue(), conf.encode()));
+            } catch (IllegalArgumentException e) {
+                // something in there can't be encoded, so always parse it
+                cache.remove(path);
+            }
+            cacheDirty = true;
+            return new Result(file, conf, null);
+        } catch (Throwable t) {
+            return new Result(file, null, t);
+        }
+    }
+
+    private static File getCacheFile() {
+        return new File(Global.plugin.getDataFolder(), CACHE_FILE);
+    }
+
+    // called from the main thread
+    private static void loadCache() {
+        cache = new ConcurrentHashMap<String,CacheEntry>();
+        File file = getCacheFile();
+        if (! file.exists()) return;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if ((in.readInt() != CACHE_MAGIC) || (in.readInt() != CACHE_VERSION)) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long modified = in.readLong();
+                long size = in.readLong();
+                long crc = in.readLong();
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                cache.put(path, new CacheEntry(modified, size, crc, new String(encoded, "UTF-8")));
+            }
+        } catch (IOException e) {
+            Utils.warning("ignoring unreadable load cache %s: %s", file.getAbsolutePath(), e.getMessage());
+            cache.clear();
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    // called from the main thread
+    private static void saveCache() {
+        cacheDirty = false;
+        for (String path : new ArrayList<String>(cache.keySet()))
+            if (! new File(path).exists())
+                cache.remove(path);
+        File file = getCacheFile();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(cache.size());
+            for (Map.Entry<String,CacheEntry> e : cache.entrySet()) {
+                CacheEntry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.modified);
+                out.writeLong(entry.size);
+                out.writeLong(entry.crc);
+                byte[] encoded = entry.encoded.getBytes("UTF-8");
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+            out.close();
+            out = null;
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Utils.warning("unable to save load cache %s: %s", file.getAbsolutePath(), e.getMessage());
+            tempFile.delete();
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final long modified;
+        final long size;
+        final long crc;
+        final String encoded;
+
+        CacheEntry(long modified, long size, long crc, String encoded) {
+            this.modified = modified;
+            this.size = size;
+            this.crc = crc;
+            this.encoded = encoded;
+        }
+
+        boolean matches(long modified, long size, long crc) {
+            return (this.modified == modified) && (this.size == size) && (this.crc == crc);
+        }
+
+    }
+
+    public static final class Result {
+
+        private final File file;
+        private final TypeMap conf;
+        private final Throwable error;
+
+        private Result(File file, TypeMap conf, Throwable error) {
+            this.file = file;
+            this.conf = conf;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // rethrows whatever went wrong while parsing the file
+        public TypeMap getConf() {
+            if (error instanceof RuntimeException) throw (RuntimeException)error;
+            if (error instanceof Error) throw (Error)error;
+            if (error != null) throw new RuntimeException(error);
+            return conf;
+        }
+
+    }
+
+}
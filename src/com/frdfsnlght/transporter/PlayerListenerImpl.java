@@ -147,26 +147,27 @@ public final class PlayerListenerImpl implements Listener {
 
     public static Player testPlayer = null;
 
-    @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+    // registered on demand by Listeners
     public void onPlayerInteract(PlayerInteractEvent event) {
         Block block = event.getClickedBlock();
         if (block == null) {
             Utils.debug("no block was interacted with?");
             return;
         }
+        if ((event.getPlayer() != testPlayer) &&
+            (! Gates.mayHaveGate(block.getWorld(), block.getX(), block.getY(), block.getZ(), GateMap.ROLE_TRIGGER | GateMap.ROLE_SWITCH))) return;
         Location location = block.getLocation();
-        Context ctx = new Context(event.getPlayer());
 
-        LocalGateImpl triggerGate = Gates.findGateForTrigger(location);
-        LocalGateImpl switchGate = Gates.findGateForSwitch(location);
+        GateMap.BlockRoles roles = Gates.findGateRoles(location);
+        LocalGateImpl triggerGate = (roles == null) ? null : roles.getGate(GateMap.ROLE_TRIGGER);
+        LocalGateImpl switchGate = (roles == null) ? null : roles.getGate(GateMap.ROLE_SWITCH);
         if (event.getPlayer() == testPlayer) {
             Utils.debug("-Interaction-----------------------------------------");
             Utils.debug("location: %s", Utils.blockCoords(location));
             Utils.debug("triggerGate: %s", (triggerGate == null) ? "none" : triggerGate.getFullName());
             Utils.debug("switchGate: %s", (switchGate == null) ? "none" : switchGate.getFullName());
             if ((triggerGate == null) && (switchGate == null)) {
-                Utils.debug("triggerMap: %s", Gates.triggerMap.toString(testPlayer.getWorld()));
-                Utils.debug("switchMap: %s", Gates.switchMap.toString(testPlayer.getWorld()));
+                Utils.debug("blockMap: %s", Gates.blockMap.toString(testPlayer.getWorld()));
             }
         }
 
@@ -175,6 +176,7 @@ public final class PlayerListenerImpl implements Listener {
 
         LocalGateImpl testGate = (triggerGate == null) ? switchGate : triggerGate;
         Player player = event.getPlayer();
+        Context ctx = new Context(player);
         Gates.setSelectedGate(player, testGate);
 
         int key =
@@ -225,7 +227,7 @@ public final class PlayerListenerImpl implements Listener {
 
     }
 
-    @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+    // registered on demand by Listeners
     public void onPlayerMove(PlayerMoveEvent event) {
         if ((event.getFrom().getBlockX() == event.getTo().getBlockX()) &&
             (event.getFrom().getBlockY() == event.getTo().getBlockY()) &&
@@ -325,6 +327,10 @@ public final class PlayerListenerImpl implements Listener {
         if (r != null) {
             if (Config.getHideLocalLoginLeaveMessage()) event.setQuitMessage(null);
         }
+        if (player == testPlayer) {
+            testPlayer = null;
+            Listeners.update();
+        }
 
     }
 
@@ -355,14 +361,8 @@ public final class PlayerListenerImpl implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerChatAsync(final AsyncPlayerChatEvent event) {
         Utils.debug("chat event is canceled: %s", event.isCancelled());
-        if (event.isAsynchronous())
-            Utils.fire(new Runnable() {
-                public void run() {
-                    Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
-                }
-            });
-        else
-            Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
+        // Chat.send moves to the main thread itself when it has to
+        Chat.send(event.getPlayer(), event.getMessage(), event.getFormat());
     }
 
 }
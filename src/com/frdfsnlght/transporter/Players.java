@@ -17,10 +17,15 @@ package com.frdfsnlght.transporter;
 
 import com.frdfsnlght.transporter.api.TypeMap;
 import com.frdfsnlght.transporter.api.RemotePlayer;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.bukkit.GameMode;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
@@ -33,6 +38,13 @@ import org.bukkit.potion.PotionEffectType;
  */
 public final class Players {
 
+    // Online players by world and chunk, kept only while tracking is on.
+    // Tracking is turned on by Listeners while some gate receives chat
+    // within a limited distance.
+    private static final Map<World,Map<Long,Set<Player>>> buckets = new HashMap<World,Map<Long,Set<Player>>>();
+    private static final Map<Player,Location> bucketed = new HashMap<Player,Location>();
+    private static boolean tracking = false;
+
     public static Player findLocal(String name) {
         Player player = Global.plugin.getServer().getPlayer(name);
         if (player != null) return player;
@@ -45,6 +57,108 @@ public final class Players {
         return player;
     }
 
+    // called from the main thread
+    public static void startTracking() {
+        if (tracking) return;
+        tracking = true;
+        for (Player p : Global.plugin.getServer().getOnlinePlayers())
+            track(p, p.getLocation());
+    }
+
+    // called from the main thread
+    public static void stopTracking() {
+        tracking = false;
+        buckets.clear();
+        bucketed.clear();
+    }
+
+    // called from the main thread when a player joins or moves
+    public static void track(Player player, Location to) {
+        if ((! tracking) || (to == null) || (to.getWorld() == null)) return;
+        Location from = bucketed.get(player);
+        int cx = to.getBlockX() >> 4;
+        int cz = to.getBlockZ() >> 4;
+        if (from != null) {
+            if ((from.getWorld() == to.getWorld()) &&
+                ((from.getBlockX() >> 4) == cx) &&
+                ((from.getBlockZ() >> 4) == cz)) return;
+            removeFromBucket(player, from);
+        }
+        Map<Long,Set<Player>> chunks = buckets.get(to.getWorld());
+        if (chunks == null) {
+            chunks = new HashMap<Long,Set<Player>>();
+            buckets.put(to.getWorld(), chunks);
+        }
+        Long key = chunkKey(cx, cz);
+        Set<Player> ps = chunks.get(key);
+        if (ps == null) {
+            ps = new HashSet<Player>();
+            chunks.put(key, ps);
+        }
+        ps.add(player);
+        bucketed.put(player, to.clone());
+    }
+
+    // called from the main thread when a player quits
+    public static void untrack(Player player) {
+        Location from = bucketed.remove(player);
+        if (from != null)
+            removeFromBucket(player, from);
+    }
+
+    // Adds the players in the world who are within distance of the center.
+    // Only the chunks overlapping the distance are looked at when tracking
+    // is on and the distance covers no more chunks than are occupied.
+    public static void addNearby(World world, double x, double y, double z, int distance, Collection<Player> players) {
+        double limit = (double)distance * distance;
+        Map<Long,Set<Player>> chunks = tracking ? buckets.get(world) : null;
+        if (tracking && (chunks == null)) return;
+        if (chunks != null) {
+            int minX = ((int)Math.floor(x - distance)) >> 4;
+            int maxX = ((int)Math.floor(x + distance)) >> 4;
+            int minZ = ((int)Math.floor(z - distance)) >> 4;
+            int maxZ = ((int)Math.floor(z + distance)) >> 4;
+            long span = ((long)(maxX - minX + 1)) * (maxZ - minZ + 1);
+            if (span <= chunks.size()) {
+                for (int cx = minX; cx <= maxX; cx++)
+                    for (int cz = minZ; cz <= maxZ; cz++) {
+                        Set<Player> ps = chunks.get(chunkKey(cx, cz));
+                        if (ps == null) continue;
+                        for (Player p : ps)
+                            if (isWithin(p, x, y, z, limit)) players.add(p);
+                    }
+                return;
+            }
+        }
+        for (Player p : world.getPlayers())
+            if (isWithin(p, x, y, z, limit)) players.add(p);
+    }
+
+    private static boolean isWithin(Player player, double x, double y, double z, double limit) {
+        Location loc = player.getLocation();
+        double dx = loc.getX() - x;
+        double dy = loc.getY() - y;
+        double dz = loc.getZ() - z;
+        return ((dx * dx) + (dy * dy) + (dz * dz)) <= limit;
+    }
+
+    private static void removeFromBucket(Player player, Location from) {
+        Map<Long,Set<Player>> chunks = buckets.get(from.getWorld());
+        if (chunks == null) return;
+        Long key = chunkKey(from.getBlockX() >> 4, from.getBlockZ() >> 4);
+        Set<Player> ps = chunks.get(key);
+        if (ps == null) return;
+        ps.remove(player);
+        if (! ps.isEmpty()) return;
+        chunks.remove(key);
+        if (chunks.isEmpty())
+            buckets.remove(from.getWorld());
+    }
+
+    private static long chunkKey(int cx, int cz) {
+        return (((long)cx) << 32) | (cz & 0xffffffffL);
+    }
+
     public static RemotePlayerImpl findRemote(String name) {
         Map<String,RemotePlayerImpl> players = new HashMap<String,RemotePlayerImpl>();
         for (Server server : Servers.getAll())
@@ -97,6 +97,12 @@ public final class ReservationImpl implements Reservation {
         }
     }
 
+    public static void removeExpiredGateLocks() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Long> i = gateLocks.values().iterator(); i.hasNext(); )
+            if (i.next() <= now) i.remove();
+    }
+
     public static boolean isGateLocked(Entity entity) {
         if (entity == null) return false;
         return gateLocks.containsKey(entity.getEntityId());
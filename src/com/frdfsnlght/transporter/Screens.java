@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Batches sign screen updates for block gates.
+ * <p>
+ * A gate's screens can be asked to change several times in a row, for
+ * instance when a server reconnects and its gates come back one by one.
+ * Requests are collected here and each gate is redrawn once on the next
+ * tick, a limited number of signs per tick.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class Screens {
+
+    // most signs written in one tick before the rest wait for the next
+    private static final int SIGNS_PER_TICK = 64;
+
+    // gates waiting to be redrawn, and whether their signs must be written
+    // even if the text hasn't changed
+    private static final Map<LocalBlockGateImpl,Boolean> pending = new LinkedHashMap<LocalBlockGateImpl,Boolean>();
+    private static boolean flushScheduled = false;
+
+    // called from the main thread
+
+    public static void update(LocalBlockGateImpl gate, boolean force) {
+        Boolean wasForced = pending.get(gate);
+        if ((wasForced == null) || (force && (! wasForced)))
+            pending.put(gate, force);
+        scheduleFlush();
+    }
+
+    public static void cancel(LocalBlockGateImpl gate) {
+        pending.remove(gate);
+    }
+
+    public static void stop() {
+        flush(Integer.MAX_VALUE);
+        flushScheduled = false;
+    }
+
+    private static void scheduleFlush() {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        int task = Utils.fire(new Runnable() {
+            public void run() {
+                flushScheduled = false;
+                flush(SIGNS_PER_TICK);
+                if (! pending.isEmpty())
+                    scheduleFlush();
+            }
+        });
+        if (task == -1) {
+            // no scheduler to wait for
+            flushScheduled = false;
+            flush(Integer.MAX_VALUE);
+        }
+    }
+
+    private static void flush(int budget) {
+        for (Iterator<Map.Entry<LocalBlockGateImpl,Boolean>> i = pending.entrySet().iterator(); i.hasNext() && (budget > 0); ) {
+            Map.Entry<LocalBlockGateImpl,Boolean> entry = i.next();
+            i.remove();
+            LocalBlockGateImpl gate = entry.getKey();
+            // gates still being built or already gone get nothing
+            if (Gates.get(gate.getFullName()) != gate) continue;
+            budget -= gate.drawScreens(entry.getValue());
+        }
+    }
+
+}
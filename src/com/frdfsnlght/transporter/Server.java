@@ -36,8 +36,15 @@ import com.frdfsnlght.transporter.api.event.RemotePlayerKickEvent;
 import com.frdfsnlght.transporter.api.event.RemotePlayerQuitEvent;
 import com.frdfsnlght.transporter.api.event.RemoteServerConnectEvent;
 import com.frdfsnlght.transporter.api.event.RemoteServerDisconnectEvent;
+import com.frdfsnlght.transporter.net.APIRequestMessage;
+import com.frdfsnlght.transporter.net.ChatMessage;
 import com.frdfsnlght.transporter.net.Connection;
+import com.frdfsnlght.transporter.net.ConnectionStats;
+import com.frdfsnlght.transporter.net.Message;
 import com.frdfsnlght.transporter.net.Network;
+import com.frdfsnlght.transporter.net.PlayerChangeWorldMessage;
+import com.frdfsnlght.transporter.net.PlayerJoinMessage;
+import com.frdfsnlght.transporter.net.PlayerQuitMessage;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -113,15 +120,12 @@ public final class Server implements OptionsListener, RemoteServer {
         addMessageHandler("linkAddComplete");
         addMessageHandler("linkRemove");
         addMessageHandler("linkRemoveComplete");
-        addMessageHandler("playerChangeWorld");
-        addMessageHandler("playerJoin");
-        addMessageHandler("playerQuit");
-        addMessageHandler("playerKick");
         addMessageHandler("playerDeath");
-        addMessageHandler("chat");
         addMessageHandler("privateMessage");
-        addMessageHandler("apiRequest");
         addMessageHandler("apiResult");
+
+        // playerChangeWorld, playerJoin, playerQuit, playerKick, chat and
+        // apiRequest arrive as typed messages, see receiveMessage(Message)
         addMessageHandler("worldLoad");
         addMessageHandler("worldUnload");
     }
@@ -185,6 +189,9 @@ public final class Server implements OptionsListener, RemoteServer {
     private String sendChatFilter = null;
     private String sendChatFormatFilter = null;
     private String receiveChatFilter = null;
+    private Pattern sendChatPattern = null;
+    private Pattern sendChatFormatPattern = null;
+    private Pattern receiveChatPattern = null;
 
     // Should all player join/quit/kick messages from the remote server be echoed to local users?
     private boolean announcePlayers = false;
@@ -291,6 +298,12 @@ public final class Server implements OptionsListener, RemoteServer {
         return readyForAPI;
     }
 
+    public TypeMap getNetworkStats() {
+        Connection conn = connection;
+        if (conn == null) return null;
+        return conn.getStats().toMap();
+    }
+
     
     public void broadcast(final Callback<Integer> cb, String message, String permission) {
         TypeMap args = new TypeMap();
@@ -529,6 +542,7 @@ public final class Server implements OptionsListener, RemoteServer {
     
     public void setSendChat(boolean b) {
         sendChat = b;
+        Chat.invalidateRoutes();
     }
 
     
@@ -538,16 +552,29 @@ public final class Server implements OptionsListener, RemoteServer {
 
     
     public void setSendChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFilter = s;
+        sendChatPattern = p;
+        Chat.invalidateRoutes();
+    }
+
+    
+    // compiled filters are immutable, so chat threads may use them
+    Pattern getSendChatPattern() {
+        return sendChatPattern;
+    }
+
+    Pattern getSendChatFormatPattern() {
+        return sendChatFormatPattern;
     }
 
     
@@ -557,16 +584,19 @@ public final class Server implements OptionsListener, RemoteServer {
 
     
     public void setSendChatFormatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         sendChatFormatFilter = s;
+        sendChatFormatPattern = p;
+        Chat.invalidateRoutes();
     }
 
     
@@ -586,16 +616,18 @@ public final class Server implements OptionsListener, RemoteServer {
 
     
     public void setReceiveChatFilter(String s) {
+        Pattern p = null;
         if (s != null) {
             if (s.isEmpty() || s.equals("-")) s = null;
             else
                 try {
-                    Pattern.compile(s);
+                    p = Pattern.compile(s);
                 } catch (PatternSyntaxException e) {
                     throw new IllegalArgumentException("invalid regular expression");
                 }
         }
         receiveChatFilter = s;
+        receiveChatPattern = p;
     }
 
     
@@ -976,29 +1008,44 @@ public final class Server implements OptionsListener, RemoteServer {
             return;
         }
         Utils.debug("received command '%s' from %s", command, getName());
+        final ConnectionStats stats = (connection == null) ? null : connection.getStats();
+        final long received = System.nanoTime();
         Utils.fire(new Runnable() {
             
             public void run() {
+                long started = System.nanoTime();
                 receiveMessage(message, command);
+                if (stats != null)
+                    stats.onDispatched(command, started - received, System.nanoTime() - started);
+            }
+        });
+    }
+
+    public void onMessage(final Message message) {
+        final String command = message.getCommand();
+        Utils.debug("received command '%s' from %s", command, getName());
+        final ConnectionStats stats = (connection == null) ? null : connection.getStats();
+        final long received = System.nanoTime();
+        Utils.fire(new Runnable() {
+
+            public void run() {
+                long started = System.nanoTime();
+                receiveMessage(message);
+                if (stats != null)
+                    stats.onDispatched(command, started - received, System.nanoTime() - started);
             }
         });
     }
 
     public boolean canSendChat(String message, String format) {
-        if ((! sendChat) || (message == null)) return false;
-        if (sendChatFilter != null)
-            if (! Pattern.compile(sendChatFilter).matcher(message).find()) return false;
-        if (sendChatFormatFilter != null) {
-            if (format == null) return false;
-            if (! Pattern.compile(sendChatFormatFilter).matcher(format).find()) return false;
-        }
-        return true;
+        if (! sendChat) return false;
+        return Chat.matchesSendFilters(sendChatPattern, sendChatFormatPattern, message, format);
     }
 
     public boolean canReceiveChat(String message) {
         if ((! receiveChat) || (message == null)) return false;
-        if (receiveChatFilter == null) return true;
-        return Pattern.compile(receiveChatFilter).matcher(message).find();
+        if (receiveChatPattern == null) return true;
+        return receiveChatPattern.matcher(message).find();
     }
 
     // Remote commands
@@ -1122,16 +1169,13 @@ public final class Server implements OptionsListener, RemoteServer {
 
     public void sendChat(Player player, String msg, Set<RemoteGateImpl> toGates) {
         if (! isConnectionConnected()) return;
-        TypeMap message = createMessage("chat");
-        message.put("player", player.getName());
-        message.put("message", msg);
+        List<String> gates = null;
         if (toGates != null) {
-            List<String> gates = new ArrayList<String>(toGates.size());
+            gates = new ArrayList<String>(toGates.size());
             for (RemoteGateImpl gate : toGates)
                 gates.add(gate.getLocalName());
-            message.put("toGates", gates);
         }
-        sendMessage(message);
+        sendMessage(new ChatMessage(player.getName(), msg, gates));
     }
 
     public void sendLinkAdd(Player player, LocalGateImpl fromGate, RemoteGateImpl toGate) {
@@ -1172,40 +1216,32 @@ public final class Server implements OptionsListener, RemoteServer {
 
     public void sendPlayerChangeWorld(Player player) {
         if (! isConnectionConnected()) return;
-        TypeMap message = createMessage("playerChangeWorld");
-        message.put("player", player.getName());
-        message.put("world", player.getWorld().getName());
-        message.put("prefix", Chat.getPrefix(player));
-        message.put("suffix", Chat.getSuffix(player));
-        sendMessage(message);
+        sendMessage(new PlayerChangeWorldMessage(
+                player.getName(),
+                player.getWorld().getName(),
+                Chat.getPrefix(player),
+                Chat.getSuffix(player)));
     }
 
     public void sendPlayerJoin(Player player, boolean hasReservation) {
         if (! isConnectionConnected()) return;
-        TypeMap message = createMessage("playerJoin");
-        message.put("name", player.getName());
-        message.put("displayName", player.getDisplayName());
-        message.put("world", player.getWorld().getName());
-        message.put("hasReservation", hasReservation);
-        message.put("prefix", Chat.getPrefix(player));
-        message.put("suffix", Chat.getSuffix(player));
-        sendMessage(message);
+        sendMessage(new PlayerJoinMessage(
+                player.getName(),
+                player.getDisplayName(),
+                player.getWorld().getName(),
+                hasReservation,
+                Chat.getPrefix(player),
+                Chat.getSuffix(player)));
     }
 
     public void sendPlayerQuit(Player player, boolean hasReservation) {
         if (! isConnectionConnected()) return;
-        TypeMap message = createMessage("playerQuit");
-        message.put("name", player.getName());
-        message.put("hasReservation", hasReservation);
-        sendMessage(message);
+        sendMessage(new PlayerQuitMessage("playerQuit", player.getName(), hasReservation));
     }
 
     public void sendPlayerKick(Player player, boolean hasReservation) {
         if (! isConnectionConnected()) return;
-        TypeMap message = createMessage("playerKick");
-        message.put("name", player.getName());
-        message.put("hasReservation", hasReservation);
-        sendMessage(message);
+        sendMessage(new PlayerQuitMessage("playerKick", player.getName(), hasReservation));
     }
 
     public void sendPlayerDeath(Player player) {
@@ -1231,11 +1267,10 @@ public final class Server implements OptionsListener, RemoteServer {
             return;
         }
         final long rid = nextRequestId++;
-        TypeMap out = createMessage("apiRequest");
-        out.put("requestId", rid);
-        out.put("target", target);
-        out.put("method", method);
-        out.put("args", args);
+        // the caller keeps its own map
+        if ((args != null) && (! args.isFrozen()))
+            args = args.clone().freeze();
+        APIRequestMessage out = new APIRequestMessage(rid, target, method, args);
         Utils.debug("api request to %s: %s", name, out);
         cb.setRequestId(rid);
         requests.put(rid, cb);
@@ -1273,6 +1308,40 @@ public final class Server implements OptionsListener, RemoteServer {
 
     // Message handling
 
+    // run in the main thread
+    private void receiveMessage(Message message) {
+        try {
+            if (message instanceof PlayerJoinMessage)
+                receivePlayerJoin((PlayerJoinMessage)message);
+            else if (message instanceof PlayerQuitMessage)
+                receivePlayerQuit((PlayerQuitMessage)message);
+            else if (message instanceof PlayerChangeWorldMessage)
+                receivePlayerChangeWorld((PlayerChangeWorldMessage)message);
+            else if (message instanceof ChatMessage)
+                receiveChat((ChatMessage)message);
+            else if (message instanceof APIRequestMessage)
+                receiveApiRequest((APIRequestMessage)message);
+            else
+                Utils.warning("receive unrecognized command '%s' from '%s'", message.getCommand(), getName());
+        } catch (TransporterException te) {
+            Utils.warning( "while processing command '%s' from '%s': %s", message.getCommand(), getName(), te.getMessage());
+            if (isConnectionConnected()) {
+                TypeMap response = createMessage("error");
+                response.put("success", false);
+                response.put("error", te.getMessage());
+                sendMessage(response);
+            }
+        } catch (Throwable t) {
+            Utils.severe(t, "while processing command '%s' from '%s': %s", message.getCommand(), getName(), t.getMessage());
+            if (isConnectionConnected()) {
+                TypeMap response = createMessage("error");
+                response.put("success", false);
+                response.put("error", t.getMessage());
+                sendMessage(response);
+            }
+        }
+    }
+
     // run in the main thread
     private void receiveMessage(TypeMap message, String command) {
         try {
@@ -1732,34 +1801,34 @@ public final class Server implements OptionsListener, RemoteServer {
         ctx.sendLog("removed link from '%s' to '%s'", toGate.getName(ctx), fromGate.getName(ctx));
     }
 
-    private void receivePlayerChangeWorld(TypeMap message) throws ServerException {
-        String playerName = message.getString("player");
+    private void receivePlayerChangeWorld(PlayerChangeWorldMessage message) throws ServerException {
+        String playerName = message.getPlayer();
         if (playerName == null)
             throw new ServerException("missing player");
-        String worldName = message.getString("world");
+        String worldName = message.getWorld();
         if (worldName == null)
             throw new ServerException("missing world");
         RemotePlayerImpl player = remotePlayers.get(playerName);
         if (player == null) return;
         player.setWorld(worldName);
-        player.setPrefix(message.getString("prefix"));
-        player.setSuffix(message.getString("suffix"));
+        player.setPrefix(message.getPrefix());
+        player.setSuffix(message.getSuffix());
         RemotePlayerChangeWorldEvent event = new RemotePlayerChangeWorldEvent(player);
         Global.plugin.getServer().getPluginManager().callEvent(event);
     }
 
-    private void receivePlayerJoin(TypeMap message) throws ServerException {
-        String playerName = message.getString("name");
+    private void receivePlayerJoin(PlayerJoinMessage message) throws ServerException {
+        String playerName = message.getName();
         if (playerName == null)
             throw new ServerException("missing name");
-        String displayName = message.getString("displayName");
+        String displayName = message.getDisplayName();
         if (displayName == null)
             throw new ServerException("missing displayName");
-        String worldName = message.getString("world");
+        String worldName = message.getWorld();
         if (worldName == null)
             throw new ServerException("missing world");
-        boolean hasReservation = message.getBoolean("hasReservation");
-        RemotePlayerImpl player = new RemotePlayerImpl(this, playerName, displayName, worldName, message.getString("prefix"), message.getString("suffix"));
+        boolean hasReservation = message.hasReservation();
+        RemotePlayerImpl player = new RemotePlayerImpl(this, playerName, displayName, worldName, message.getPrefix(), message.getSuffix());
         addRemotePlayer(player, true);
         if (! hasReservation) {
             RemotePlayerJoinEvent event = new RemotePlayerJoinEvent(player);
@@ -1769,11 +1838,15 @@ public final class Server implements OptionsListener, RemoteServer {
         }
     }
 
-    private void receivePlayerQuit(TypeMap message) throws ServerException {
-        String playerName = message.getString("name");
+    private void receivePlayerQuit(PlayerQuitMessage message) throws ServerException {
+        if (message.isKick()) {
+            receivePlayerKick(message);
+            return;
+        }
+        String playerName = message.getName();
         if (playerName == null)
             throw new ServerException("missing name");
-        boolean hasReservation = message.getBoolean("hasReservation");
+        boolean hasReservation = message.hasReservation();
         RemotePlayerImpl player = remotePlayers.get(playerName);
         if (player == null) return;
             //throw new ServerException("unknown player '%s'", playerName);
@@ -1786,11 +1859,11 @@ public final class Server implements OptionsListener, RemoteServer {
         }
     }
 
-    private void receivePlayerKick(TypeMap message) throws ServerException {
-        String playerName = message.getString("name");
+    private void receivePlayerKick(PlayerQuitMessage message) throws ServerException {
+        String playerName = message.getName();
         if (playerName == null)
             throw new ServerException("missing name");
-        boolean hasReservation = message.getBoolean("hasReservation");
+        boolean hasReservation = message.hasReservation();
         RemotePlayerImpl player = remotePlayers.get(playerName);
         if (player == null) return;
         removeRemotePlayer(playerName, true);
@@ -1814,14 +1887,14 @@ public final class Server implements OptionsListener, RemoteServer {
             Global.plugin.getServer().broadcastMessage(Chat.colorize(player.format(Config.getServerDeathFormat())));
     }
 
-    private void receiveChat(TypeMap message) throws ServerException {
-        String playerName = message.getString("player");
+    private void receiveChat(ChatMessage message) throws ServerException {
+        String playerName = message.getPlayer();
         if (playerName == null)
             throw new ServerException("missing player");
-        String msg = message.getString("message");
+        String msg = message.getMessage();
         if (msg == null)
             throw new ServerException("missing message");
-        List<String> toGates = message.getStringList("toGates");
+        List<String> toGates = message.getToGates();
         RemotePlayerImpl player = remotePlayers.get(playerName);
         if (player == null) return;
         Chat.receive(this, player, msg, toGates);
@@ -1843,15 +1916,15 @@ public final class Server implements OptionsListener, RemoteServer {
         Chat.receivePrivateMessage(this, fromPlayer, toPlayerName, msg);
     }
 
-    private void receiveApiRequest(TypeMap message) throws ServerException {
-        String target = message.getString("target");
+    private void receiveApiRequest(APIRequestMessage message) throws ServerException {
+        String target = message.getTarget();
         if (target == null)
             throw new ServerException("missing target");
-        String method = message.getString("method");
+        String method = message.getMethod();
         if (method == null)
             throw new ServerException("missing method");
-        long rid = message.getLong("requestId");
-        TypeMap args = message.getMap("args");
+        long rid = message.getRequestId();
+        TypeMap args = message.getArgs();
 
         TypeMap out = createMessage("apiResult");
         out.put("requestId", rid);
@@ -1902,8 +1975,21 @@ public final class Server implements OptionsListener, RemoteServer {
         return m;
     }
 
+    private void sendMessage(final Message message) {
+        Utils.debug("sending command '%s' to %s", message.getCommand(), name);
+        Utils.worker(new Runnable() {
+
+            public void run() {
+                if (connection != null)
+                    connection.sendMessage(message, true);
+            }
+        });
+    }
+
     private void sendMessage(final TypeMap message) {
         Utils.debug("sending command '%s' to %s", message.getString("command", "<none>"), name);
+        // the worker encodes it later, so make sure nobody changes it first
+        message.freeze();
         Utils.worker(new Runnable() {
             
             public void run() {
@@ -61,6 +61,7 @@ public final class Servers {
         if (servers.containsKey(name))
             throw new ServerException("a server with the same name already exists");
         servers.put(server.getName(), server);
+        Chat.invalidateRoutes();
         if (server.isEnabled())
             Utils.fireDelayed(new Runnable() {
                 public void run() {
@@ -73,6 +74,7 @@ public final class Servers {
         String name = server.getName();
         if (! servers.containsKey(name)) return;
         servers.remove(name);
+        Chat.invalidateRoutes();
         server.disconnect(false);
     }
 
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter;
+
+import com.frdfsnlght.transporter.api.TypeMap;
+
+/**
+ * Typed copy of the options that are read on hot paths.
+ * <p>
+ * A new instance is built from the frozen configuration whenever it is
+ * loaded or an option changes and is published through
+ * {@link Config#getSettings}, so readers on any thread get a consistent set
+ * of values from plain field reads.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class Settings {
+
+    public final boolean debug;
+    public final int debugBufferSize;
+    public final int gateLockExpiration;
+    public final int arrivalWindow;
+    public final boolean useGatePermissions;
+    public final boolean hideLocalLoginLeaveMessage;
+    public final String serverChatFormat;
+    public final int gateSaveInterval;
+    public final String gateStorage;
+
+    public final boolean apiDebug;
+    public final int apiTimeout;
+
+    public final int reconnectInterval;
+    public final int reconnectSkew;
+    public final int suppressConnectionAttempts;
+
+    Settings(TypeMap conf) {
+        debug = conf.getBoolean("global.debug", false);
+        debugBufferSize = conf.getInt("global.debugBufferSize", 500);
+        gateLockExpiration = conf.getInt("global.gateLockExpiration", 2000);
+        arrivalWindow = conf.getInt("global.arrivalWindow", 20000);
+        useGatePermissions = conf.getBoolean("global.useGatePermissions", false);
+        hideLocalLoginLeaveMessage = conf.getBoolean("global.hideLocalLoginLeaveMessage", true);
+        serverChatFormat = conf.getString("global.serverChatFormat", "<%player%/%world%@%server%> %message%");
+        gateSaveInterval = conf.getInt("global.gateSaveInterval", 1000);
+        gateStorage = conf.getString("global.gateStorage", "yaml");
+
+        apiDebug = conf.getBoolean("api.debug", false);
+        apiTimeout = conf.getInt("api.timeout", 5000);
+
+        reconnectInterval = conf.getInt("network.reconnectInterval", 60000);
+        reconnectSkew = conf.getInt("network.reconnectSkew", 10000);
+        suppressConnectionAttempts = conf.getInt("network.suppressConnectionAttempts", -1);
+    }
+
+}
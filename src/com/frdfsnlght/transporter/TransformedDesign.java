@@ -20,6 +20,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 
 /**
@@ -31,14 +33,15 @@ public final class TransformedDesign {
     private Design design;
     private Location location;
     private BlockFace direction;
+    private Rotation rotation;
     private int nextIndex = 0;
     private List<GateBlock> gateBlocks = new ArrayList<GateBlock>();
-    private Map<DesignBlockDetail,DesignBlockDetail> detailCache = new HashMap<DesignBlockDetail,DesignBlockDetail>();
 
     public TransformedDesign(Design design, Location location, BlockFace direction) {
         this.design = design;
         this.location = location;
         this.direction = direction;
+        rotation = design.getRotation(direction);
     }
 
     public void reset() {
@@ -48,25 +51,23 @@ public final class TransformedDesign {
     public void clear() {
         reset();
         gateBlocks.clear();
-        detailCache.clear();
     }
 
     public boolean hasMoreBlocks() {
-        return nextIndex < design.getBlocks().size();
+        return nextIndex < rotation.details.length;
     }
 
     public GateBlock nextBlock() {
-        //Utils.debug("getting block %s of %s", nextIndex + 1, design.getBlocks().size());
-        if (nextIndex == design.getBlocks().size()) return null;
-        DesignBlock db = design.getBlocks().get(nextIndex++);
-        DesignBlockDetail detail;
-        if (detailCache.containsKey(db.getDetail())) {
-            detail = detailCache.get(db.getDetail());
-        } else {
-            detail = new DesignBlockDetail(db.getDetail(), direction);
-            detailCache.put(db.getDetail(), detail);
-        }
-        GateBlock gb = new GateBlock(detail, rotate(location, direction, db.getX(), db.getY(), db.getZ()));
+        //Utils.debug("getting block %s of %s", nextIndex + 1, rotation.details.length);
+        if (nextIndex == rotation.details.length) return null;
+        int i = nextIndex++;
+        // blocks handed out before a reset are handed out again
+        if (i < gateBlocks.size()) return gateBlocks.get(i);
+        int o = i * 3;
+        GateBlock gb = new GateBlock(rotation.details[i], new Location(location.getWorld(),
+                location.getBlockX() + rotation.offsets[o],
+                location.getBlockY() + rotation.offsets[o + 1],
+                location.getBlockZ() + rotation.offsets[o + 2]));
         //Utils.debug("return %s block at %s", gb.getDetail().getBuildBlock().getMaterial(), Utils.blockCoords(gb.getLocation()));
         gateBlocks.add(gb);
         return gb;
@@ -77,50 +78,75 @@ public final class TransformedDesign {
         return gateBlocks;
     }
 
-    private Location rotate(Location loc, BlockFace facing, int offX, int offY, int offZ) {
-        switch (facing) {
-            case NORTH:
-                return new Location(loc.getWorld(),
-                        loc.getBlockX() + offX,
-                        loc.getBlockY() + offY,
-                        loc.getBlockZ() + offZ);
-            case EAST:
-                return new Location(loc.getWorld(),
-                        loc.getBlockX() - offZ,
-                        loc.getBlockY() + offY,
-                        loc.getBlockZ() + offX);
-            case SOUTH:
-                return new Location(loc.getWorld(),
-                        loc.getBlockX() - offX,
-                        loc.getBlockY() + offY,
-                        loc.getBlockZ() - offZ);
-            case WEST:
-                return new Location(loc.getWorld(),
-                        loc.getBlockX() + offZ,
-                        loc.getBlockY() + offY,
-                        loc.getBlockZ() - offX);
-//            case NORTH:
-//                return new Location(loc.getWorld(),
-//                        loc.getBlockX() - offZ,
-//                        loc.getBlockY() + offY,
-//                        loc.getBlockZ() + offX);
-//            case EAST:
-//                return new Location(loc.getWorld(),
-//                        loc.getBlockX() - offX,
-//                        loc.getBlockY() + offY,
-//                        loc.getBlockZ() - offZ);
-//            case SOUTH:
-//                return new Location(loc.getWorld(),
-//                        loc.getBlockX() + offZ,
-//                        loc.getBlockY() + offY,
-//                        loc.getBlockZ() - offX);
-//            case WEST:
-//                return new Location(loc.getWorld(),
-//                        loc.getBlockX() + offX,
-//                        loc.getBlockY() + offY,
-//                        loc.getBlockZ() + offZ);
+    // Returns true if every matchable block in the world matches the design.
+    public boolean matches() {
+        for (int i = 0; i < rotation.details.length; i++) {
+            DesignBlockDetail detail = rotation.details[i];
+            if (detail.isMatchable() && (! detail.getBuildBlock().matches(getBlock(i)))) return false;
         }
-        return null;
+        return true;
+    }
+
+    // Returns true if any block the design would build is currently of the given type.
+    public boolean buildsOver(Material type) {
+        for (int i = 0; i < rotation.details.length; i++)
+            if (rotation.details[i].isBuildable() && (getBlock(i).getType() == type)) return true;
+        return false;
+    }
+
+    private Block getBlock(int i) {
+        int o = i * 3;
+        return location.getWorld().getBlockAt(
+                location.getBlockX() + rotation.offsets[o],
+                location.getBlockY() + rotation.offsets[o + 1],
+                location.getBlockZ() + rotation.offsets[o + 2]);
+    }
+
+    /**
+     * A design's blocks turned to face one direction: the offset of each
+     * block from the design's origin, packed as x, y, z triples, and each
+     * block's detail rotated to match. Blocks that share a detail in the
+     * design share the rotated one too.
+     */
+    static final class Rotation {
+
+        final int[] offsets;
+        final DesignBlockDetail[] details;
+
+        Rotation(List<DesignBlock> blocks, BlockFace direction) {
+            offsets = new int[blocks.size() * 3];
+            details = new DesignBlockDetail[blocks.size()];
+            Map<DesignBlockDetail,DesignBlockDetail> rotated = new HashMap<DesignBlockDetail,DesignBlockDetail>();
+            int i = 0;
+            for (DesignBlock db : blocks) {
+                int x = db.getX(), y = db.getY(), z = db.getZ();
+                int o = i * 3;
+                switch (direction) {
+                    case NORTH:
+                        offsets[o] = x; offsets[o + 2] = z;
+                        break;
+                    case EAST:
+                        offsets[o] = -z; offsets[o + 2] = x;
+                        break;
+                    case SOUTH:
+                        offsets[o] = -x; offsets[o + 2] = -z;
+                        break;
+                    case WEST:
+                        offsets[o] = z; offsets[o + 2] = -x;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unsupported direction " + direction);
+                }
+                offsets[o + 1] = y;
+                DesignBlockDetail detail = rotated.get(db.getDetail());
+                if (detail == null) {
+                    detail = new DesignBlockDetail(db.getDetail(), direction);
+                    rotated.put(db.getDetail(), detail);
+                }
+                details[i++] = detail;
+            }
+        }
+
     }
 
 }
@@ -59,6 +59,8 @@ public class Transporter extends JavaPlugin {
         Global.pluginName = pdf.getName();
         Global.pluginVersion = pdf.getVersion();
         Global.started = false;
+        Log.start();
+        GatePersister.start();
 
         /*
         if (! Compatibility.setup()) {
@@ -136,6 +138,7 @@ public class Transporter extends JavaPlugin {
         pm.registerEvents(vehicleListener, this);
         pm.registerEvents(worldListener, this);
         pm.registerEvents(entityListener, this);
+        Listeners.start(blockListener, playerListener, vehicleListener);
 
         Runnable loadWorlds = new Runnable() {
             public void run() {
@@ -164,9 +167,13 @@ public class Transporter extends JavaPlugin {
         Context ctx = new Context();
         Realm.stop(ctx);
         Network.stop(ctx);
+        Screens.stop();
         Config.save(ctx);
         Gates.save(ctx);
+        GatePersister.stop();
+        Listeners.stop();
         ctx.sendLog("disabled");
+        Log.stop();
         Global.plugin = null;
     }
 
@@ -91,45 +91,26 @@ public class Utils {
             + "There is a update ready to be downloaded! You are using " + ChatColor.RED + "v%s" + ChatColor.DARK_RED
             + ", the new version is " + ChatColor.RED + "%s" + ChatColor.DARK_RED + "!";
 
+    // messages are formatted and written by the log thread, see Log
+
     public static void info(String msg, Object ... args) {
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        logger.log(Level.INFO, String.format("[%s] %s", Global.pluginName, msg));
+        Log.log(Level.INFO, "", null, msg, args);
     }
 
     public static void warning(String msg, Object ... args) {
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        logger.log(Level.WARNING, String.format("[%s] %s", Global.pluginName, msg));
+        Log.log(Level.WARNING, "", null, msg, args);
     }
 
     public static void severe(String msg, Object ... args) {
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        logger.log(Level.SEVERE, String.format("[%s] %s", Global.pluginName, msg));
+        Log.log(Level.SEVERE, "", null, msg, args);
     }
 
     public static void severe(Throwable t, String msg, Object ... args) {
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        logger.log(Level.SEVERE, String.format("[%s] %s", Global.pluginName, msg), t);
+        Log.log(Level.SEVERE, "", t, msg, args);
     }
 
     public static void debug(String msg, Object ... args) {
-        if (! Config.getDebug()) return;
-        if (args.length > 0)
-            msg = String.format(msg, args);
-        msg = ChatColor.stripColor(msg);
-        if (msg.isEmpty()) return;
-        logger.log(Level.INFO, String.format("[%s] (DEBUG) %s", Global.pluginName, msg));
+        Log.debug("(DEBUG) ", msg, args);
     }
 
     public static String expandFormat(String format, Map<String,String> tokens) {
@@ -693,6 +674,12 @@ public class Utils {
             writer.flush();
             zipOut.closeEntry();
 
+            // recent debug messages, even if debug output is off
+            zipOut.putNextEntry(new ZipEntry("recent-debug.txt"));
+            Log.dumpDebug(writer);
+            writer.flush();
+            zipOut.closeEntry();
+
             zipOut.close();
         } catch (IOException e) {
             severe(e, "unable to create debug zip file '%s':", zipFile.getAbsolutePath());
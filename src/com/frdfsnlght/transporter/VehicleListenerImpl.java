@@ -20,8 +20,6 @@ import com.frdfsnlght.transporter.api.ReservationException;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Vehicle;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.vehicle.VehicleMoveEvent;
 
@@ -31,7 +29,7 @@ import org.bukkit.event.vehicle.VehicleMoveEvent;
  */
 public class VehicleListenerImpl implements Listener {
 
-    @EventHandler(priority = EventPriority.MONITOR)
+    // registered on demand by Listeners
     public void onVehicleMove(VehicleMoveEvent event) {
         Vehicle vehicle = event.getVehicle();
         LocalGateImpl fromGate = Gates.findGateForPortal(event.getTo());
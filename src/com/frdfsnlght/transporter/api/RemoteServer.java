@@ -41,6 +41,19 @@ public interface RemoteServer {
      */
     public boolean isConnected();
 
+    /**
+     * Returns a snapshot of the network statistics for the current
+     * connection to the server, or null if there is no connection.
+     * <p>
+     * Byte and frame counts are totals since the connection was made.
+     * Times are cumulative nanoseconds; divide by the matching frame
+     * count for an average. The "commands" key holds a map of the same
+     * counters broken down by command.
+     *
+     * @return a map of statistics or null
+     */
+    public TypeMap getNetworkStats();
+
     /**
      * Returns a set of players currently online on the server.
      *
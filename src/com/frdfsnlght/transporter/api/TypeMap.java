@@ -16,74 +16,57 @@
 package com.frdfsnlght.transporter.api;
 
 import com.frdfsnlght.transporter.JSON;
+import com.frdfsnlght.transporter.net.MessageReader;
+import com.frdfsnlght.transporter.net.MessageWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
 /**
+ * A map of configuration or message values addressed by dotted paths.
+ * <p>
+ * A map can be frozen, after which it and everything reachable from it are
+ * immutable and can be shared between threads without copying. Frozen maps
+ * are never copied again: cloning a map, or setting a value below a frozen
+ * child, only copies the maps along the path being changed and shares the
+ * rest.
  *
  * @author frdfsnlght <frdfsnlght@gmail.com>
  */
 public final class TypeMap extends HashMap<String,Object> implements Cloneable {
 
     public static TypeMap decode(String encoded) {
-        return (TypeMap)decodeObject(new StringBuilder(encoded));
+        return new MessageReader(encoded).readMap();
     }
 
     public static TypeMap decodeJSON(String encoded) {
         return (TypeMap)JSON.decode(encoded);
     }
 
-    private static String encodeObject(Object v) {
-        if (v == null) return "n:0:";
-        if (v instanceof String) return encodeString((String)v);
-        if (v instanceof Boolean) return encodeBoolean((Boolean)v);
-        if (v instanceof Byte) return encodeLong(((Byte)v).longValue());
-        if (v instanceof Short) return encodeLong(((Short)v).longValue());
-        if (v instanceof Integer) return encodeLong(((Integer)v).longValue());
-        if (v instanceof Long) return encodeLong((Long)v);
-        if (v instanceof Float) return encodeDouble(((Float)v).doubleValue());
-        if (v instanceof Double) return encodeDouble((Double)v);
-        if (v instanceof TypeMap) return encodeMap((TypeMap)v);
-        if (v instanceof Collection) return encodeList((Collection)v);
-        throw new IllegalArgumentException("unable to encode '" + v.getClass().getName() + "'");
-    }
-
-    private static Object decodeObject(StringBuilder b) {
-        //if (b.length() == 0) return null;   // to fix StringIndexOutOfBoundsException?
-        char type = b.charAt(0);
-        b.delete(0, 2);
-        int pos = b.indexOf(":");
-        int len = Integer.parseInt(b.substring(0, pos));
-        b.delete(0, pos + 1);
-        switch (type) {
-            case 'n':
-//System.out.println("decoded null");
-                return null;
-            case 's': return decodeString(b, len);
-            case 'b': return decodeBoolean(b, len);
-            case 'l': return decodeLong(b, len);
-            case 'd': return decodeDouble(b, len);
-            case 'm': return decodeMap(b, len);
-            case 'v': return decodeList(b, len);
-            default:
-                throw new IllegalArgumentException("unable to decode '" + type + "'");
-        }
+    public static TypeMap decodeJSON(Reader reader) throws IOException {
+        return (TypeMap)JSON.decode(reader);
     }
 
     private static String stringifyObject(Object v) {
@@ -101,104 +84,22 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         throw new IllegalArgumentException("unable to stringify '" + v.getClass().getName() + "'");
     }
 
-    private static String encodeString(String v) {
-        try {
-            v = URLEncoder.encode(v, "UTF-8");
-        } catch (UnsupportedEncodingException e) {}
-        return "s:" + v.length() + ":" + v;
-    }
-
-    private static String decodeString(StringBuilder b, int len) {
-//System.out.print("decode string (" + len + "): ");
-        String str = b.substring(0, len);
-        b.delete(0, len);
-        try {
-            String s = URLDecoder.decode(str, "UTF-8");
-//System.out.println(s);
-            return s;
-        } catch (UnsupportedEncodingException e) {
-//System.out.println("unsupported encoding!!!!!");
-            return null;
-        }
-    }
-
     private static String stringifyString(String v) {
         return "\"" + v + "\"";
     }
 
-    private static String encodeBoolean(Boolean v) {
-        String s = v.toString();
-        return "b:" + s.length() + ":" + s;
-    }
-
-    private static Boolean decodeBoolean(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
-        Boolean bool = Boolean.parseBoolean(str);
-//System.out.println("decode boolean: " + bool);
-        return bool;
-    }
-
     private static String stringifyBoolean(Boolean v) {
         return v.toString();
     }
 
-    private static String encodeLong(Long v) {
-        String s = v.toString();
-        return "l:" + s.length() + ":" + s;
-    }
-
-    private static Long decodeLong(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
-        Long l = Long.parseLong(str);
-//System.out.println("decode long: " + l);
-        return l;
-    }
-
     private static String stringifyLong(Long v) {
         return v.toString();
     }
 
-    private static String encodeDouble(Double v) {
-        String s = v.toString();
-        return "d:" + s.length() + ":" + s;
-    }
-
-    private static Double decodeDouble(StringBuilder b, int len) {
-        String str = b.substring(0, len);
-        b.delete(0, len);
-        Double d = Double.parseDouble(str);
-//System.out.println("decode double: " + d);
-        return d;
-    }
-
     private static String stringifyDouble(Double v) {
         return v.toString();
     }
 
-    private static String encodeMap(TypeMap v) {
-        StringBuilder buf = new StringBuilder("m:");
-        buf.append(v.size()).append(":");
-        for (String key : v.keySet()) {
-            buf.append(encodeString(key));
-            buf.append(encodeObject(v.get(key)));
-        }
-        return buf.toString();
-    }
-
-    private static TypeMap decodeMap(StringBuilder b, int len) {
-//System.out.println("decode message (" + len + ")");
-        TypeMap m = new TypeMap();
-        for (int i = 0; i < len; i++) {
-//System.out.print(" message item " + i + ": ");
-            String key = (String)decodeObject(b);
-            Object value = decodeObject(b);
-            m.put(key, value);
-        }
-        return m;
-    }
-
     private static String stringifyMap(TypeMap v) {
         StringBuilder buf = new StringBuilder();
         for (String key : v.keySet())
@@ -208,24 +109,6 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return "{\n" + pad(buf.toString()) + "\n}";
     }
 
-    private static String encodeList(Collection v) {
-        StringBuilder buf = new StringBuilder("v:");
-        buf.append(v.size()).append(":");
-        for (Object o : v)
-            buf.append(encodeObject(o));
-        return buf.toString();
-    }
-
-    private static List<Object> decodeList(StringBuilder b, int len) {
-//System.out.println("decode list (" + len + ")");
-        List<Object> l = new ArrayList<Object>();
-        for (int i = 0; i < len; i++) {
-//System.out.print(" list item " + i + ": ");
-            l.add(decodeObject(b));
-        }
-        return l;
-    }
-
     private static String stringifyList(Collection v) {
         StringBuilder buf = new StringBuilder();
         for (Object o : v)
@@ -244,9 +127,15 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return buf.toString();
     }
 
+    // marks a path that doesn't resolve in a frozen map's path cache
+    private static final Object MISSING = new Object();
+    // stands in for a null value in a frozen map's path cache
+    private static final Object NULL = new Object();
+
     @SuppressWarnings("unchecked")
     private static Object convertValue(Object val) {
         if (val == null) return null;
+        if (isFrozenValue(val)) return val;
         if (val instanceof TypeMap) {
             for (String k : ((TypeMap)val).keySet())
                 ((TypeMap)val).put(k, convertValue(((TypeMap)val).get(k)));
@@ -276,11 +165,12 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     @SuppressWarnings("unchecked")
     private static Object cloneValue(Object val) {
         if (val == null) return null;
+        if (isFrozenValue(val)) return val;
         if (val instanceof TypeMap) {
             TypeMap map = new TypeMap();
             for (String k : ((TypeMap)val).keySet())
                 map.put(k, cloneValue(((TypeMap)val).get(k)));
-            return val;
+            return map;
         }
         if (val instanceof Map) {
             TypeMap child = new TypeMap();
@@ -289,9 +179,10 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
             return child;
         }
         if (val instanceof List) {
-            for (int i = 0; i < ((List)val).size(); i++)
-                ((List)val).set(i, cloneValue(((List)val).get(i)));
-            return val;
+            List<Object> list = new ArrayList<Object>(((List)val).size());
+            for (Object v : (List)val)
+                list.add(cloneValue(v));
+            return list;
         }
         if (val instanceof Collection) {
             Object[] vals = ((Collection)val).toArray();
@@ -303,7 +194,33 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return val;
     }
 
+    private static boolean isFrozenValue(Object val) {
+        return (val instanceof FrozenList) ||
+               ((val instanceof TypeMap) && ((TypeMap)val).frozen);
+    }
+
+    private static Object freezeValue(Object val) {
+        if (val == null) return null;
+        if (isFrozenValue(val)) return val;
+        if (val instanceof TypeMap)
+            return ((TypeMap)val).freeze();
+        if (val instanceof Map)
+            return new TypeMap((Map)val).freeze();
+        if (val instanceof Collection) {
+            Object[] vals = ((Collection)val).toArray();
+            for (int i = 0; i < vals.length; i++)
+                vals[i] = freezeValue(vals[i]);
+            return new FrozenList(vals);
+        }
+        return val;
+    }
+
     private File file = null;
+    private boolean frozen = false;
+    // read-only view of the entries, created when the map is frozen
+    private Set<Map.Entry<String,Object>> frozenEntries = null;
+    // resolved dotted paths, created on the first lookup after freezing
+    private volatile ConcurrentMap<String,Object> paths = null;
 
     public TypeMap() {}
 
@@ -319,13 +236,188 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return file;
     }
 
+    public void setFile(File file) {
+        this.file = file;
+    }
+
     @Override
     public TypeMap clone() {
         return new TypeMap(this);
     }
 
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Makes this map, and every map and list reachable from it, immutable.
+     * <p>
+     * Nested lists and collections are replaced by immutable lists. Children
+     * that are already frozen are left alone, so freezing a map produced by
+     * {@link #thaw} only visits the maps that were changed.
+     *
+     * @return this map
+     */
+    public TypeMap freeze() {
+        if (frozen) return this;
+        for (Map.Entry<String,Object> e : super.entrySet())
+            e.setValue(freezeValue(e.getValue()));
+        // unmodifiableSet alone would still hand out entries that accept setValue
+        frozenEntries = Collections.unmodifiableMap(new AbstractMap<String,Object>() {
+            @Override
+            public Set<Map.Entry<String,Object>> entrySet() {
+                return TypeMap.super.entrySet();
+            }
+        }).entrySet();
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * Returns a mutable copy of this map that shares all frozen children.
+     * <p>
+     * The copy keeps this map's file.
+     *
+     * @return the new map
+     */
+    public TypeMap thaw() {
+        TypeMap map = new TypeMap(this);
+        map.file = file;
+        return map;
+    }
+
+    /**
+     * Returns a frozen copy of this frozen map with the value at the
+     * specified path replaced. Only the maps along the path are copied.
+     *
+     * @param key   the dotted path of the value to set
+     * @param val   the new value
+     * @return the new map
+     */
+    public TypeMap with(String key, Object val) {
+        TypeMap map = thaw();
+        map.set(key, val);
+        return map.freeze();
+    }
+
+    /**
+     * Returns a frozen copy of this frozen map with the value at the
+     * specified path removed. Only the maps along the path are copied.
+     *
+     * @param key   the dotted path of the value to remove
+     * @return the new map
+     */
+    public TypeMap without(String key) {
+        TypeMap map = thaw();
+        map.remove(key);
+        return map.freeze();
+    }
+
+    private void checkFrozen() {
+        if (frozen)
+            throw new UnsupportedOperationException("map is frozen");
+    }
+
+    // returns the child map at key, replacing a frozen child with a mutable copy
+    private TypeMap getMutableMap(String key) {
+        TypeMap child = getMap(key);
+        if ((child != null) && child.frozen) {
+            child = child.thaw();
+            super.put(key, child);
+        }
+        return child;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        checkFrozen();
+        return super.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        checkFrozen();
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        checkFrozen();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        checkFrozen();
+        super.clear();
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        checkFrozen();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        checkFrozen();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        checkFrozen();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String,? super Object,? extends Object> function) {
+        checkFrozen();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String,? extends Object> function) {
+        checkFrozen();
+        return super.computeIfAbsent(key, function);
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String,? super Object,? extends Object> function) {
+        checkFrozen();
+        return super.computeIfPresent(key, function);
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String,? super Object,? extends Object> function) {
+        checkFrozen();
+        return super.compute(key, function);
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object,? super Object,? extends Object> function) {
+        checkFrozen();
+        return super.merge(key, value, function);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return frozen ? Collections.unmodifiableSet(super.keySet()) : super.keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return frozen ? Collections.unmodifiableCollection(super.values()) : super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return frozen ? frozenEntries : super.entrySet();
+    }
+
     @Override
     public void putAll(Map map) {
+        checkFrozen();
         for (Object key : map.keySet()) {
             Object value = cloneValue(map.get(key));
             put(key.toString(), value);
@@ -335,16 +427,12 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     public void load() {
         if (file == null)
             throw new IllegalStateException("no file defined");
-        clear();
         InputStream input = null;
         try {
             input = new FileInputStream(file);
-            Yaml yaml = new Yaml();
-            Object o = yaml.load(input);
-            if (! (o instanceof Map)) return;
-            for (Object k : ((Map)o).keySet())
-                set(k.toString(), ((Map)o).get(k));
+            load(input);
         } catch (IOException e) {
+            clear();
         } finally {
             try {
                 if (input != null) input.close();
@@ -352,6 +440,16 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         }
     }
 
+    public void load(InputStream input) {
+        checkFrozen();
+        clear();
+        Yaml yaml = new Yaml();
+        Object o = yaml.load(input);
+        if (! (o instanceof Map)) return;
+        for (Object k : ((Map)o).keySet())
+            set(k.toString(), ((Map)o).get(k));
+    }
+
     public void save(File file) {
         this.file = file;
         save();
@@ -377,20 +475,27 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     }
 
     public String encode() {
-        return encodeMap(this);
+        MessageWriter writer = new MessageWriter();
+        writer.writeValue(this);
+        return writer.toString();
     }
 
     public String encodeJSON() {
         return JSON.encode(this);
     }
 
+    public void encodeJSON(Appendable out) throws IOException {
+        JSON.encode(this, out);
+    }
+
     public void set(String key, Object val) {
+        checkFrozen();
         String[] keyParts = splitKey(key);
         if (keyParts.length == 1) {
             put(key, convertValue(val));
             return;
         }
-        TypeMap child = getMap(keyParts[0]);
+        TypeMap child = getMutableMap(keyParts[0]);
         if (child == null) {
             child = new TypeMap();
             put(keyParts[0], child);
@@ -399,12 +504,13 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     }
 
     public void remove(String key) {
+        checkFrozen();
         String[] keyParts = splitKey(key);
         if (keyParts.length == 1) {
             super.remove(key);
             return;
         }
-        TypeMap child = getMap(keyParts[0]);
+        TypeMap child = getMutableMap(keyParts[0]);
         if (child == null) return;
         child.remove(keyParts[1]);
     }
@@ -427,6 +533,11 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
     }
 
     public Object get(String key, Object def) {
+        if (frozen) {
+            Object o = resolve(key);
+            if (o == MISSING) return def;
+            return (o == NULL) ? null : o;
+        }
         String[] keyParts = splitKey(key);
         if (keyParts.length == 1) {
             if (containsKey(key))
@@ -593,10 +704,66 @@ public final class TypeMap extends HashMap<String,Object> implements Cloneable {
         return stringifyMap(this);
     }
 
+    // called on frozen maps only, caches the result of walking a dotted path
+    private Object resolve(String key) {
+        if (key.indexOf('.') == -1) {
+            if (containsKey(key)) {
+                Object o = super.get(key);
+                return (o == null) ? NULL : o;
+            }
+            return MISSING;
+        }
+        ConcurrentMap<String,Object> cache = paths;
+        if (cache == null)
+            paths = cache = new ConcurrentHashMap<String,Object>();
+        Object o = cache.get(key);
+        if (o != null) return o;
+        o = MISSING;
+        TypeMap node = this;
+        String rest = key;
+        int pos;
+        while ((pos = rest.indexOf('.')) != -1) {
+            node = node.getMap(rest.substring(0, pos));
+            if (node == null) break;
+            rest = rest.substring(pos + 1);
+        }
+        if ((node != null) && node.containsKey(rest)) {
+            o = node.rawGet(rest);
+            if (o == null) o = NULL;
+        }
+        cache.put(key, o);
+        return o;
+    }
+
+    private Object rawGet(String key) {
+        return super.get(key);
+    }
+
     private String[] splitKey(String key) {
         int pos = key.indexOf(".");
         if (pos == -1) return new String[] { key };
         return new String[] { key.substring(0, pos), key.substring(pos + 1) };
     }
 
+    // the immutable list frozen maps hold in place of lists and collections
+    private static final class FrozenList extends AbstractList<Object> implements RandomAccess {
+
+        private final Object[] values;
+
+        FrozenList(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+    }
+
 }
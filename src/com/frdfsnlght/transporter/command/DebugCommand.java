@@ -17,6 +17,7 @@ package com.frdfsnlght.transporter.command;
 
 import com.frdfsnlght.transporter.Context;
 import com.frdfsnlght.transporter.Gates;
+import com.frdfsnlght.transporter.Listeners;
 import com.frdfsnlght.transporter.PlayerListenerImpl;
 import com.frdfsnlght.transporter.Utils;
 import com.frdfsnlght.transporter.api.TransporterException;
@@ -81,6 +82,7 @@ public class DebugCommand extends TrpCommandProcessor {
                 PlayerListenerImpl.testPlayer = null;
                 ctx.send("player interaction debug is off");
             }
+            Listeners.update();
             return;
         }
 
@@ -17,7 +17,11 @@ package com.frdfsnlght.transporter.command;
 
 import com.frdfsnlght.transporter.Context;
 import com.frdfsnlght.transporter.Permissions;
+import com.frdfsnlght.transporter.Server;
+import com.frdfsnlght.transporter.Servers;
 import com.frdfsnlght.transporter.api.TransporterException;
+import com.frdfsnlght.transporter.net.Connection;
+import com.frdfsnlght.transporter.net.ConnectionStats;
 import com.frdfsnlght.transporter.net.Network;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +47,7 @@ public class NetworkCommand  extends TrpCommandProcessor {
         cmds.add(getPrefix(ctx) + GROUP + "ban add <pattern>");
         cmds.add(getPrefix(ctx) + GROUP + "ban remove <pattern>|*");
         cmds.add(getPrefix(ctx) + GROUP + "ban list");
+        cmds.add(getPrefix(ctx) + GROUP + "stats [<server>]");
         cmds.add(getPrefix(ctx) + GROUP + "get <option>|*");
         cmds.add(getPrefix(ctx) + GROUP + "set <option> <value>");
 
@@ -76,6 +81,31 @@ public class NetworkCommand  extends TrpCommandProcessor {
             return;
         }
 
+        if ("stats".startsWith(subCmd)) {
+            Permissions.require(ctx.getPlayer(), "trp.network.stats");
+            List<Server> servers = new ArrayList<Server>();
+            if (args.isEmpty())
+                servers.addAll(Servers.getAll());
+            else {
+                Server server = Servers.find(args.get(0));
+                if (server == null)
+                    throw new CommandException("unknown server '%s'", args.get(0));
+                servers.add(server);
+            }
+            if (servers.isEmpty()) {
+                ctx.send("there are no servers");
+                return;
+            }
+            for (Server server : servers) {
+                Connection conn = server.getConnection();
+                if (conn == null)
+                    ctx.send("server '%s' is not connected", server.getName());
+                else
+                    showStats(ctx, server, conn.getStats(), ! args.isEmpty());
+            }
+            return;
+        }
+
         if ("ban".startsWith(subCmd)) {
             if (args.isEmpty())
                 throw new CommandException("do what with bans?");
@@ -124,4 +154,43 @@ public class NetworkCommand  extends TrpCommandProcessor {
         throw new CommandException("do what with the network?");
     }
 
+    private void showStats(Context ctx, Server server, ConnectionStats stats, boolean showCommands) {
+        ctx.send("server '%s', connected for %ds:", server.getName(), (System.currentTimeMillis() - stats.getCreated()) / 1000);
+        ctx.send("  in: %d frames, %d bytes, decrypt %.3fms, decode %.3fms",
+                stats.getFramesIn(), stats.getBytesIn(),
+                average(stats.getDecryptTime(), stats.getFramesIn()),
+                average(stats.getDecodeTime(), stats.getFramesIn()));
+        ctx.send("  out: %d frames, %d bytes, encode %.3fms, encrypt %.3fms",
+                stats.getFramesOut(), stats.getBytesOut(),
+                average(stats.getEncodeTime(), stats.getFramesOut()),
+                average(stats.getEncryptTime(), stats.getFramesOut()));
+        ctx.send("  write queue: depth %d, max %d, wait %.3fms",
+                stats.getQueueDepth(), stats.getMaxQueueDepth(),
+                average(stats.getQueueTime(), stats.getQueued()));
+        StringBuilder b = new StringBuilder("  queue wait:");
+        long[] histogram = stats.getQueueHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            if (i < ConnectionStats.QUEUE_BUCKETS.length)
+                b.append(String.format(" <%dms:%d", ConnectionStats.QUEUE_BUCKETS[i], histogram[i]));
+            else
+                b.append(String.format(" more:%d", histogram[i]));
+        }
+        ctx.send(b.toString());
+        if (! showCommands) return;
+        for (String command : stats.getCommands()) {
+            ConnectionStats.CommandStats cs = stats.getCommandStats(command);
+            ctx.send("  %s: in %d/%db, out %d/%db, dispatch wait %.3fms, run %.3fms",
+                    command,
+                    cs.getFramesIn(), cs.getBytesIn(),
+                    cs.getFramesOut(), cs.getBytesOut(),
+                    average(cs.getDispatchWaitTime(), cs.getDispatched()),
+                    average(cs.getDispatchRunTime(), cs.getDispatched()));
+        }
+    }
+
+    private double average(long nanos, long count) {
+        if (count == 0) return 0;
+        return ((double)nanos / (double)count) / 1000000.0;
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import com.frdfsnlght.transporter.api.TypeMap;
+
+/**
+ * Asks a remote server to invoke an API method.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class APIRequestMessage extends Message {
+
+    private long requestId;
+    private String target;
+    private String method;
+    private TypeMap args;
+
+    APIRequestMessage() {
+        super("apiRequest");
+    }
+
+    public APIRequestMessage(long requestId, String target, String method, TypeMap args) {
+        this();
+        this.requestId = requestId;
+        this.target = target;
+        this.method = method;
+        this.args = args;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public TypeMap getArgs() {
+        return args;
+    }
+
+    @Override
+    protected int getFieldCount() {
+        return 4;
+    }
+
+    @Override
+    protected void writeFields(MessageWriter writer) {
+        writer.put("requestId", requestId);
+        writer.put("target", target);
+        writer.put("method", method);
+        writer.putValue("args", args);
+    }
+
+    @Override
+    protected boolean readField(String key, MessageReader reader) {
+        if (key.equals("requestId")) requestId = reader.readLong(0);
+        else if (key.equals("target")) target = reader.readString();
+        else if (key.equals("method")) method = reader.readString();
+        else if (key.equals("args")) args = reader.readMap();
+        else return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "apiRequest " + requestId + " " + target + "." + method + " " + args;
+    }
+
+}
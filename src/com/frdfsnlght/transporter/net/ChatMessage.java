@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.util.List;
+
+/**
+ * Relays a chat message from a player, either to all players or only to
+ * players near the listed gates.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class ChatMessage extends Message {
+
+    private String player;
+    private String message;
+    private List<String> toGates;
+
+    ChatMessage() {
+        super("chat");
+    }
+
+    public ChatMessage(String player, String message, List<String> toGates) {
+        this();
+        this.player = player;
+        this.message = message;
+        this.toGates = toGates;
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    // null means the message goes to everyone
+    public List<String> getToGates() {
+        return toGates;
+    }
+
+    @Override
+    protected int getFieldCount() {
+        return (toGates == null) ? 2 : 3;
+    }
+
+    @Override
+    protected void writeFields(MessageWriter writer) {
+        writer.put("player", player);
+        writer.put("message", message);
+        if (toGates != null) {
+            writer.writeString("toGates");
+            writer.writeStringList(toGates);
+        }
+    }
+
+    @Override
+    protected boolean readField(String key, MessageReader reader) {
+        if (key.equals("player")) player = reader.readString();
+        else if (key.equals("message")) message = reader.readString();
+        else if (key.equals("toGates")) toGates = reader.readStringList();
+        else return false;
+        return true;
+    }
+
+}
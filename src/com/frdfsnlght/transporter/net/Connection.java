@@ -56,8 +56,12 @@ public final class Connection {
     private long lastMessageSentTime = 0;
     private long lastMessageReceivedTime = 0;
 
+    // our key as the remote side knows it, pinned during the handshake
+    private String localKey = null;
+
     private byte[] readBuffer = null;
-    private final List<byte[]> writeBuffers = new ArrayList<byte[]>();
+    private final List<QueuedFrame> writeBuffers = new ArrayList<QueuedFrame>();
+    private final ConnectionStats stats = new ConnectionStats();
 
     private int nextRequestId = 1;
     private final Map<Integer,Result> requests = new HashMap<Integer,Result>();
@@ -101,6 +105,10 @@ public final class Connection {
         return lastMessageReceivedTime;
     }
 
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
 
     @Override
     public String toString() {
@@ -117,6 +125,10 @@ public final class Connection {
         return connectAddress;
     }
 
+    public String getLocalKey() {
+        return (localKey == null) ? Network.getCachedKey() : localKey;
+    }
+
     public void onOpening(SocketChannel channel) {
         this.channel = channel;
     }
@@ -138,10 +150,11 @@ public final class Connection {
         message.put("protocolVersion", PROTOCOL_VERSION);
         message.put("pluginVersion", Global.pluginVersion);
 
+        localKey = Network.getCachedKey();
         try {
             MessageDigest dig = MessageDigest.getInstance("SHA1");
             Formatter f = new Formatter();
-            byte[] out = dig.digest((Network.getCachedKey() + ":" + server.getKey()).getBytes("UTF-8"));
+            byte[] out = dig.digest((localKey + ":" + server.getKey()).getBytes("UTF-8"));
             for (Byte b : out) f.format("%02x", b);
             message.put("key", f.toString());
             sendMessage(message, false);
@@ -195,18 +208,25 @@ public final class Connection {
                 try {
                     byte[] messageData = Arrays.copyOfRange(readBuffer, 4, recLen + 4);
                     byte[] clearData = messageData;
+                    long t0 = System.nanoTime();
                     if ((flags & ENCRYPTED_FLAG) == ENCRYPTED_FLAG) {
                         Cipher cipher = new Cipher(CIPHER_PAD_SIZE);
-                        cipher.initDecrypt(Network.getCachedKey().getBytes("UTF-8"));
+                        cipher.initDecrypt(getLocalKey().getBytes("UTF-8"));
                         messageData = cipher.doFinal(messageData);
                     }
+                    long t1 = System.nanoTime();
                     String encoded = new String(messageData, "UTF-8");
+                    Message typed = null;
+                    TypeMap message = null;
                     try {
-                        TypeMap message = TypeMap.decode(encoded);
-                        if (message != null)
-                            onMessage(message);
-                    } catch (StringIndexOutOfBoundsException e) {
-                        Utils.severe("Got a StringIndexOutOfBounds, dumping debug state!!!");
+                        MessageReader reader = new MessageReader(encoded);
+                        // hot commands on established connections skip the TypeMap
+                        String command = (state == State.ESTABLISHED) ? reader.findCommand() : null;
+                        typed = Message.decode(command, reader);
+                        if (typed == null)
+                            message = reader.readMap();
+                    } catch (IllegalArgumentException e) {
+                        Utils.severe("Got an undecodable message, dumping debug state!!!");
                         Utils.severe("flags=%s", flags);
                         Utils.severe("recLen bytes: %s %s %s",
                             (0x00ff0000 & ((long)readBuffer[1] << 16)),
@@ -228,6 +248,14 @@ public final class Connection {
                         Utils.severe("next 16 bytes of readBuffer: %s", Utils.byteArrayToString(readBuffer, recLen + 4, 16));
                         throw e;
                     }
+                    long t2 = System.nanoTime();
+                    if (typed != null) {
+                        stats.onFrameReceived(typed.getCommand(), recLen + 4, t1 - t0, t2 - t1);
+                        onMessage(typed);
+                    } else if (message != null) {
+                        stats.onFrameReceived(message.getString("command"), recLen + 4, t1 - t0, t2 - t1);
+                        onMessage(message);
+                    }
                 } catch (Throwable t) {
                     Utils.severe(t, "exception while processing message from %s: %s", name, t.getMessage());
                     close();
@@ -252,15 +280,20 @@ public final class Connection {
     }
 
     public byte[] onGetWriteData() {
+        QueuedFrame frame;
         synchronized (writeBuffers) {
             if (writeBuffers.isEmpty()) return null;
-            return writeBuffers.remove(0);
+            frame = writeBuffers.remove(0);
         }
+        if (frame.queuedTime != 0)
+            stats.onFrameDequeued(System.nanoTime() - frame.queuedTime);
+        return frame.data;
     }
 
+    // puts back the unwritten remainder of a frame, which has already left the queue
     public void onPutWriteData(byte[] data) {
         synchronized (writeBuffers) {
-            writeBuffers.add(0, data);
+            writeBuffers.add(0, new QueuedFrame(data, 0));
         }
     }
 
@@ -304,15 +337,30 @@ public final class Connection {
 
     public void sendMessage(TypeMap message, boolean encrypt) {
         if (state == State.CLOSED) return;
+        long t0 = System.nanoTime();
+        String encoded = message.encode();
+        queueMessage(encoded, message.getString("command"), t0, encrypt);
+    }
+
+    public void sendMessage(Message message, boolean encrypt) {
+        if (state == State.CLOSED) return;
+        long t0 = System.nanoTime();
+        String encoded = message.encode();
+        queueMessage(encoded, message.getCommand(), t0, encrypt);
+    }
+
+    // t0 is when encoding started
+    private void queueMessage(String encoded, String command, long t0, boolean encrypt) {
         try {
-            String encoded = message.encode();
             byte[] messageData = encoded.getBytes("UTF-8");
             byte[] clearData = messageData;
+            long t1 = System.nanoTime();
             if (encrypt) {
                 Cipher cipher = new Cipher(CIPHER_PAD_SIZE);
                 cipher.initEncrypt(server.getKey().getBytes("UTF-8"));
                 messageData = cipher.doFinal(messageData);
             }
+            long t2 = System.nanoTime();
             byte[] data = new byte[messageData.length + 4];
             System.arraycopy(messageData, 0, data, 4, messageData.length);
             data[0] = encrypt ? ENCRYPTED_FLAG : 0;
@@ -347,7 +395,8 @@ public final class Connection {
                 (new Exception("Invalid message encoding!!!")).printStackTrace();
             }
             synchronized (writeBuffers) {
-                writeBuffers.add(data);
+                writeBuffers.add(new QueuedFrame(data, System.nanoTime()));
+                stats.onFrameQueued(command, data.length, t1 - t0, t2 - t1);
             }
             lastMessageSentTime = System.currentTimeMillis();
         } catch (UnsupportedEncodingException e) {
@@ -413,11 +462,9 @@ public final class Connection {
                 }
                 for (Server serv : Servers.getAll()) {
                     try {
-                        MessageDigest dig = MessageDigest.getInstance("SHA1");
-                        Formatter f = new Formatter();
-                        byte[] out = dig.digest((serv.getKey() + ":" + Network.getCachedKey()).getBytes("UTF-8"));
-                        for (Byte b : out) f.format("%02x", b);
-                        if (f.toString().equals(key)) {
+                        String ourKey = matchHandshakeKey(serv.getKey(), key);
+                        if (ourKey != null) {
+                            localKey = ourKey;
                             Utils.info("server key match detected for '%s' on connection with %s", serv.getName(), getName());
                             if (serv.isEnabled()) {
                                 if (serv.isConnectionConnected()) {
@@ -484,6 +531,39 @@ public final class Connection {
         }
     }
 
+    private void onMessage(Message message) {
+        lastMessageReceivedTime = System.currentTimeMillis();
+        // sanity check
+        if (server.getConnection() != this) {
+            Utils.warning("connection '%s' has been disowned by server '%s'!?!", getName(), server.getName());
+            server = null;
+            close();
+            return;
+        }
+        server.onMessage(message);
+    }
+
+    // returns which of our accepted keys the remote side used, or null
+    private String matchHandshakeKey(String serverKey, String hash) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        for (String ourKey : Network.getAcceptedKeys()) {
+            MessageDigest dig = MessageDigest.getInstance("SHA1");
+            Formatter f = new Formatter();
+            byte[] out = dig.digest((serverKey + ":" + ourKey).getBytes("UTF-8"));
+            for (Byte b : out) f.format("%02x", b);
+            if (f.toString().equals(hash)) return ourKey;
+        }
+        return null;
+    }
+
+    private static final class QueuedFrame {
+        final byte[] data;
+        final long queuedTime;
+        QueuedFrame(byte[] data, long queuedTime) {
+            this.data = data;
+            this.queuedTime = queuedTime;
+        }
+    }
+
     private enum State {
         NONE,
         HANDSHAKE,
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.frdfsnlght.transporter.api.TypeMap;
+
+/**
+ * Lock-free counters for a single connection.
+ * <p>
+ * Counters are updated from the network thread, worker threads and the main
+ * thread, so everything here is atomic and readers only ever see a
+ * slightly stale view.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class ConnectionStats {
+
+    // upper bounds, in millis, of the time-in-queue histogram buckets
+    public static final long[] QUEUE_BUCKETS = new long[] { 1, 5, 10, 50, 100, 500, 1000 };
+
+    private static final String RESPONSE_COMMAND = "(response)";
+
+    private final long created = System.currentTimeMillis();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong framesIn = new AtomicLong();
+    private final AtomicLong framesOut = new AtomicLong();
+
+    private final AtomicLong encodeTime = new AtomicLong();
+    private final AtomicLong encryptTime = new AtomicLong();
+    private final AtomicLong decryptTime = new AtomicLong();
+    private final AtomicLong decodeTime = new AtomicLong();
+
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong queueTime = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLongArray queueHistogram = new AtomicLongArray(QUEUE_BUCKETS.length + 1);
+
+    private final ConcurrentMap<String,CommandStats> commands = new ConcurrentHashMap<String,CommandStats>();
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getFramesIn() {
+        return framesIn.get();
+    }
+
+    public long getFramesOut() {
+        return framesOut.get();
+    }
+
+    public long getEncodeTime() {
+        return encodeTime.get();
+    }
+
+    public long getEncryptTime() {
+        return encryptTime.get();
+    }
+
+    public long getDecryptTime() {
+        return decryptTime.get();
+    }
+
+    public long getDecodeTime() {
+        return decodeTime.get();
+    }
+
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getQueueTime() {
+        return queueTime.get();
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    public long[] getQueueHistogram() {
+        long[] h = new long[queueHistogram.length()];
+        for (int i = 0; i < h.length; i++)
+            h[i] = queueHistogram.get(i);
+        return h;
+    }
+
+    public CommandStats getCommandStats(String command) {
+        return commands.get(command);
+    }
+
+    public List<String> getCommands() {
+        List<String> l = new ArrayList<String>(commands.keySet());
+        Collections.sort(l);
+        return l;
+    }
+
+    // called from the network thread
+
+    public void onBytesRead(int num) {
+        bytesIn.addAndGet(num);
+    }
+
+    public void onBytesWritten(int num) {
+        bytesOut.addAndGet(num);
+    }
+
+    // called from the network thread
+
+    public void onFrameReceived(String command, int frameSize, long decryptNanos, long decodeNanos) {
+        framesIn.incrementAndGet();
+        decryptTime.addAndGet(decryptNanos);
+        decodeTime.addAndGet(decodeNanos);
+        CommandStats cs = getOrCreate(command);
+        cs.framesIn.incrementAndGet();
+        cs.bytesIn.addAndGet(frameSize);
+    }
+
+    // called from any thread that sends messages
+
+    public void onFrameQueued(String command, int frameSize, long encodeNanos, long encryptNanos) {
+        framesOut.incrementAndGet();
+        encodeTime.addAndGet(encodeNanos);
+        encryptTime.addAndGet(encryptNanos);
+        CommandStats cs = getOrCreate(command);
+        cs.framesOut.incrementAndGet();
+        cs.bytesOut.addAndGet(frameSize);
+        long depth = queueDepth.incrementAndGet();
+        long max;
+        while (depth > (max = maxQueueDepth.get()))
+            if (maxQueueDepth.compareAndSet(max, depth)) break;
+    }
+
+    // called from the network thread when a frame leaves the write queue
+
+    public void onFrameDequeued(long waitNanos) {
+        queueDepth.decrementAndGet();
+        queued.incrementAndGet();
+        queueTime.addAndGet(waitNanos);
+        long millis = waitNanos / 1000000L;
+        int bucket = 0;
+        while ((bucket < QUEUE_BUCKETS.length) && (millis >= QUEUE_BUCKETS[bucket])) bucket++;
+        queueHistogram.incrementAndGet(bucket);
+    }
+
+    // called from the main thread after a received command has been handled
+
+    public void onDispatched(String command, long waitNanos, long runNanos) {
+        CommandStats cs = getOrCreate(command);
+        cs.dispatched.incrementAndGet();
+        cs.dispatchWaitTime.addAndGet(waitNanos);
+        cs.dispatchRunTime.addAndGet(runNanos);
+    }
+
+    private CommandStats getOrCreate(String command) {
+        if (command == null) command = RESPONSE_COMMAND;
+        CommandStats cs = commands.get(command);
+        if (cs == null) {
+            cs = new CommandStats();
+            CommandStats old = commands.putIfAbsent(command, cs);
+            if (old != null) cs = old;
+        }
+        return cs;
+    }
+
+    public TypeMap toMap() {
+        TypeMap m = new TypeMap();
+        m.put("created", created);
+        m.put("bytesIn", getBytesIn());
+        m.put("bytesOut", getBytesOut());
+        m.put("framesIn", getFramesIn());
+        m.put("framesOut", getFramesOut());
+        m.put("encodeTime", getEncodeTime());
+        m.put("encryptTime", getEncryptTime());
+        m.put("decryptTime", getDecryptTime());
+        m.put("decodeTime", getDecodeTime());
+        m.put("queueDepth", getQueueDepth());
+        m.put("maxQueueDepth", getMaxQueueDepth());
+        m.put("queueTime", getQueueTime());
+        m.put("queued", getQueued());
+        List<Long> histogram = new ArrayList<Long>();
+        for (long l : getQueueHistogram())
+            histogram.add(l);
+        m.put("queueHistogram", histogram);
+        TypeMap cmds = new TypeMap();
+        for (Map.Entry<String,CommandStats> e : commands.entrySet())
+            cmds.put(e.getKey(), e.getValue().toMap());
+        m.put("commands", cmds);
+        return m;
+    }
+
+    public static final class CommandStats {
+
+        private final AtomicLong framesIn = new AtomicLong();
+        private final AtomicLong framesOut = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong dispatchWaitTime = new AtomicLong();
+        private final AtomicLong dispatchRunTime = new AtomicLong();
+
+        public long getFramesIn() {
+            return framesIn.get();
+        }
+
+        public long getFramesOut() {
+            return framesOut.get();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public long getDispatched() {
+            return dispatched.get();
+        }
+
+        public long getDispatchWaitTime() {
+            return dispatchWaitTime.get();
+        }
+
+        public long getDispatchRunTime() {
+            return dispatchRunTime.get();
+        }
+
+        public TypeMap toMap() {
+            TypeMap m = new TypeMap();
+            m.put("framesIn", getFramesIn());
+            m.put("framesOut", getFramesOut());
+            m.put("bytesIn", getBytesIn());
+            m.put("bytesOut", getBytesOut());
+            m.put("dispatched", getDispatched());
+            m.put("dispatchWaitTime", getDispatchWaitTime());
+            m.put("dispatchRunTime", getDispatchRunTime());
+            return m;
+        }
+
+    }
+
+}
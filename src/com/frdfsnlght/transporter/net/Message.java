@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+/**
+ * Base class for protocol messages that are encoded and decoded directly
+ * to and from the wire format instead of going through a TypeMap.
+ * <p>
+ * On the wire these are indistinguishable from the equivalent TypeMap
+ * message, so servers running older versions interoperate with them.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public abstract class Message {
+
+    // returns an empty message ready to be decoded, or null if the command isn't typed
+    private static Message create(String command) {
+        if (command == null) return null;
+        if (command.equals("playerJoin")) return new PlayerJoinMessage();
+        if (command.equals("playerQuit") || command.equals("playerKick")) return new PlayerQuitMessage(command);
+        if (command.equals("playerChangeWorld")) return new PlayerChangeWorldMessage();
+        if (command.equals("chat")) return new ChatMessage();
+        if (command.equals("apiRequest")) return new APIRequestMessage();
+        return null;
+    }
+
+    // decodes a whole message whose command has already been found, or
+    // returns null without reading anything if the command isn't typed
+    public static Message decode(String command, MessageReader reader) {
+        Message message = create(command);
+        if (message == null) return null;
+        int size = reader.readMapHeader();
+        for (int i = 0; i < size; i++) {
+            String key = reader.readString();
+            if ((key == null) || key.equals("command") || (! message.readField(key, reader)))
+                reader.skipValue();
+        }
+        return message;
+    }
+
+    private final String command;
+
+    protected Message(String command) {
+        this.command = command;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String encode() {
+        MessageWriter writer = new MessageWriter();
+        writer.beginMap(getFieldCount() + 1);
+        writer.put("command", command);
+        writeFields(writer);
+        return writer.toString();
+    }
+
+    // the number of key/value pairs written by writeFields
+    protected abstract int getFieldCount();
+
+    protected abstract void writeFields(MessageWriter writer);
+
+    // reads the value for the key and returns true, or returns false if the key is unknown
+    protected abstract boolean readField(String key, MessageReader reader);
+
+}
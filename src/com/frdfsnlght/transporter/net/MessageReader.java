@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import com.frdfsnlght.transporter.api.TypeMap;
+
+/**
+ * Reads the "type:length:value" wire format written by {@link MessageWriter}
+ * in a single forward pass over the encoded string.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class MessageReader {
+
+    private final String str;
+    private int pos = 0;
+
+    public MessageReader(String str) {
+        this.str = str;
+    }
+
+    public int getPosition() {
+        return pos;
+    }
+
+    public void setPosition(int pos) {
+        this.pos = pos;
+    }
+
+    public boolean hasMore() {
+        return pos < str.length();
+    }
+
+    public char peekType() {
+        if (pos >= str.length())
+            throw new IllegalArgumentException("unexpected end of message at " + pos);
+        return str.charAt(pos);
+    }
+
+    // returns the item count of a map
+    public int readMapHeader() {
+        return readHeader('m');
+    }
+
+    // returns the item count of a list
+    public int readListHeader() {
+        return readHeader('v');
+    }
+
+    public String readString() {
+        char type = peekType();
+        if (type == 'n') {
+            readHeader('n');
+            return null;
+        }
+        int len = readHeader('s');
+        String s = str.substring(pos, pos + len);
+        pos += len;
+        if ((s.indexOf('%') == -1) && (s.indexOf('+') == -1)) return s;
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    public boolean readBoolean(boolean def) {
+        char type = peekType();
+        if (type != 'b') {
+            skipValue();
+            return def;
+        }
+        int len = readHeader('b');
+        boolean b = str.regionMatches(true, pos, "true", 0, 4) && (len == 4);
+        pos += len;
+        return b;
+    }
+
+    public long readLong(long def) {
+        char type = peekType();
+        if (type == 'l') {
+            int len = readHeader('l');
+            long l = Long.parseLong(str, pos, pos + len, 10);
+            pos += len;
+            return l;
+        }
+        if (type == 'd')
+            return (long)readDouble(def);
+        skipValue();
+        return def;
+    }
+
+    public double readDouble(double def) {
+        char type = peekType();
+        if ((type == 'l') || (type == 'd')) {
+            int len = readHeader(type);
+            double d = Double.parseDouble(str.substring(pos, pos + len));
+            pos += len;
+            return d;
+        }
+        skipValue();
+        return def;
+    }
+
+    public List<String> readStringList() {
+        if (peekType() == 'n') {
+            readHeader('n');
+            return null;
+        }
+        int len = readListHeader();
+        List<String> l = new ArrayList<String>(len);
+        for (int i = 0; i < len; i++)
+            l.add(readString());
+        return l;
+    }
+
+    public TypeMap readMap() {
+        if (peekType() == 'n') {
+            readHeader('n');
+            return null;
+        }
+        int len = readMapHeader();
+        TypeMap m = new TypeMap();
+        for (int i = 0; i < len; i++) {
+            String key = readString();
+            m.put(key, readValue());
+        }
+        return m;
+    }
+
+    public Object readValue() {
+        char type = peekType();
+        switch (type) {
+            case 'n':
+                readHeader('n');
+                return null;
+            case 's': return readString();
+            case 'b': return readBoolean(false);
+            case 'l': return readLong(0);
+            case 'd': return readDouble(0);
+            case 'm': return readMap();
+            case 'v':
+                int len = readListHeader();
+                List<Object> l = new ArrayList<Object>(len);
+                for (int i = 0; i < len; i++)
+                    l.add(readValue());
+                return l;
+            default:
+                throw new IllegalArgumentException("unable to decode '" + type + "'");
+        }
+    }
+
+    public void skipValue() {
+        char type = peekType();
+        int len = readHeader(type);
+        switch (type) {
+            case 'm':
+                for (int i = 0; i < len; i++) {
+                    skipValue();
+                    skipValue();
+                }
+                break;
+            case 'v':
+                for (int i = 0; i < len; i++)
+                    skipValue();
+                break;
+            case 'n':
+            case 's':
+            case 'b':
+            case 'l':
+            case 'd':
+                pos += len;
+                break;
+            default:
+                throw new IllegalArgumentException("unable to decode '" + type + "'");
+        }
+    }
+
+    // Returns the value of the top level "command" key, or null, without
+    // moving the current position.
+    public String findCommand() {
+        int start = pos;
+        try {
+            if (peekType() != 'm') return null;
+            int len = readMapHeader();
+            for (int i = 0; i < len; i++) {
+                String key = readString();
+                if ("command".equals(key)) {
+                    if (peekType() != 's') return null;
+                    return readString();
+                }
+                skipValue();
+            }
+            return null;
+        } finally {
+            pos = start;
+        }
+    }
+
+    private int readHeader(char type) {
+        if (peekType() != type)
+            throw new IllegalArgumentException("expected '" + type + "' but found '" + str.charAt(pos) + "' at " + pos);
+        if ((pos + 1 >= str.length()) || (str.charAt(pos + 1) != ':'))
+            throw new IllegalArgumentException("expected ':' at " + (pos + 1));
+        int i = pos + 2;
+        int len = 0;
+        char ch;
+        while ((i < str.length()) && ((ch = str.charAt(i)) != ':')) {
+            if ((ch < '0') || (ch > '9'))
+                throw new IllegalArgumentException("invalid length at " + i);
+            len = (len * 10) + (ch - '0');
+            i++;
+        }
+        if (i >= str.length())
+            throw new IllegalArgumentException("unexpected end of message at " + i);
+        pos = i + 1;
+        if ((type != 'm') && (type != 'v') && (pos + len > str.length()))
+            throw new IllegalArgumentException("unexpected end of message at " + pos);
+        return len;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.Map;
+import com.frdfsnlght.transporter.api.TypeMap;
+
+/**
+ * Writes the "type:length:value" wire format used between servers straight
+ * into a buffer.
+ * <p>
+ * Maps and lists are written as a header holding the number of items
+ * followed by the items themselves, so callers must know their item counts
+ * up front.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class MessageWriter {
+
+    private final StringBuilder buf;
+
+    public MessageWriter() {
+        this(256);
+    }
+
+    public MessageWriter(int capacity) {
+        buf = new StringBuilder(capacity);
+    }
+
+    public MessageWriter beginMap(int size) {
+        buf.append("m:").append(size).append(':');
+        return this;
+    }
+
+    public MessageWriter beginList(int size) {
+        buf.append("v:").append(size).append(':');
+        return this;
+    }
+
+    public MessageWriter writeNull() {
+        buf.append("n:0:");
+        return this;
+    }
+
+    public MessageWriter writeString(String s) {
+        if (s == null) return writeNull();
+        if (! isPlain(s))
+            try {
+                s = URLEncoder.encode(s, "UTF-8");
+            } catch (UnsupportedEncodingException e) {}
+        buf.append("s:").append(s.length()).append(':').append(s);
+        return this;
+    }
+
+    public MessageWriter writeBoolean(boolean b) {
+        buf.append(b ? "b:4:true" : "b:5:false");
+        return this;
+    }
+
+    public MessageWriter writeLong(long l) {
+        buf.append("l:").append(digits(l)).append(':').append(l);
+        return this;
+    }
+
+    public MessageWriter writeDouble(double d) {
+        String s = Double.toString(d);
+        buf.append("d:").append(s.length()).append(':').append(s);
+        return this;
+    }
+
+    // convenience methods for map entries
+
+    public MessageWriter put(String key, String value) {
+        return writeString(key).writeString(value);
+    }
+
+    public MessageWriter put(String key, boolean value) {
+        return writeString(key).writeBoolean(value);
+    }
+
+    public MessageWriter put(String key, long value) {
+        return writeString(key).writeLong(value);
+    }
+
+    public MessageWriter put(String key, double value) {
+        return writeString(key).writeDouble(value);
+    }
+
+    public MessageWriter putValue(String key, Object value) {
+        return writeString(key).writeValue(value);
+    }
+
+    public MessageWriter writeStringList(Collection<String> list) {
+        if (list == null) return writeNull();
+        beginList(list.size());
+        for (String s : list)
+            writeString(s);
+        return this;
+    }
+
+    public MessageWriter writeValue(Object v) {
+        if (v == null) return writeNull();
+        if (v instanceof String) return writeString((String)v);
+        if (v instanceof Boolean) return writeBoolean((Boolean)v);
+        if ((v instanceof Byte) || (v instanceof Short) || (v instanceof Integer) || (v instanceof Long))
+            return writeLong(((Number)v).longValue());
+        if ((v instanceof Float) || (v instanceof Double))
+            return writeDouble(((Number)v).doubleValue());
+        if (v instanceof TypeMap) {
+            TypeMap m = (TypeMap)v;
+            beginMap(m.size());
+            for (Map.Entry<String,Object> e : m.entrySet()) {
+                writeString(e.getKey());
+                writeValue(e.getValue());
+            }
+            return this;
+        }
+        if (v instanceof Collection) {
+            Collection c = (Collection)v;
+            beginList(c.size());
+            for (Object o : c)
+                writeValue(o);
+            return this;
+        }
+        throw new IllegalArgumentException("unable to encode '" + v.getClass().getName() + "'");
+    }
+
+    public int length() {
+        return buf.length();
+    }
+
+    @Override
+    public String toString() {
+        return buf.toString();
+    }
+
+    // true if URL encoding would leave the string unchanged
+    private static boolean isPlain(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (((ch >= 'a') && (ch <= 'z')) ||
+                ((ch >= 'A') && (ch <= 'Z')) ||
+                ((ch >= '0') && (ch <= '9')) ||
+                (ch == '.') || (ch == '-') || (ch == '*') || (ch == '_')) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private static int digits(long l) {
+        if (l == Long.MIN_VALUE) return 20;
+        int n = 1;
+        if (l < 0) {
+            n++;
+            l = -l;
+        }
+        while (l >= 10) {
+            l /= 10;
+            n++;
+        }
+        return n;
+    }
+
+}
@@ -57,8 +57,11 @@ import com.frdfsnlght.transporter.Utils;
  */
 public final class Network {
 
+    // millis between attempts to listen again after the listening socket is lost
+    private static final long RELISTEN_INTERVAL = 30000;
+
     private static final Set<String> OPTIONS = new HashSet<String>();
-    private static final Set<String> RESTART_OPTIONS = new HashSet<String>();
+    private static final Set<String> LIVE_OPTIONS = new HashSet<String>();
     private static final Options options;
 
     static {
@@ -71,21 +74,22 @@ public final class Network {
         OPTIONS.add("reconnectSkew");
         OPTIONS.add("listenAddress");
         OPTIONS.add("key");
+        OPTIONS.add("keyRolloverWindow");
         OPTIONS.add("suppressConnectionAttempts");
         OPTIONS.add("bungeeServer");
 
-        RESTART_OPTIONS.add("readBufferSize");
-        RESTART_OPTIONS.add("selectInterval");
-        RESTART_OPTIONS.add("clusterName");
-        RESTART_OPTIONS.add("listenAddress");
-        RESTART_OPTIONS.add("key");
+        LIVE_OPTIONS.add("readBufferSize");
+        LIVE_OPTIONS.add("selectInterval");
+        LIVE_OPTIONS.add("clusterName");
+        LIVE_OPTIONS.add("listenAddress");
+        LIVE_OPTIONS.add("key");
 
         options = new Options(Network.class, OPTIONS, "trp.network", new OptionsListener() {
             public void onOptionSet(Context ctx, String name, String value) {
                 ctx.send("network option '%s' set to '%s'", name, value);
-                if (RESTART_OPTIONS.contains(name)) {
+                if (LIVE_OPTIONS.contains(name)) {
                     Config.save(ctx);
-                    restart(ctx);
+                    applyOption(ctx, name);
                 }
             }
             public String getOptionPermission(Context ctx, String name) {
@@ -180,11 +184,20 @@ public final class Network {
 
     private static Thread networkThread;
     private static ThreadState state = ThreadState.STOPPED;
-    private static InetSocketAddress listenAddress = null;
-    private static String key;
-    private static int selectInterval;
-    private static int readBufferSize;
+    private static volatile InetSocketAddress listenAddress = null;
+    private static volatile InetSocketAddress pendingListenAddress = null;
+    // the listenAddress option values behind listenAddress and pendingListenAddress
+    private static volatile String listenAddressSetting = null;
+    private static volatile String pendingListenAddressSetting = null;
+    // when to try listening again after losing the listening socket
+    private static long relistenTime = 0;
+    private static volatile String key;
+    private static volatile String previousKey = null;
+    private static volatile long previousKeyExpiration = 0;
+    private static volatile int selectInterval;
+    private static volatile int readBufferSize;
     private static Selector selector = null;
+    private static ByteBuffer readBuffer = null;
     private static final Set<Pattern> banned = new HashSet<Pattern>();
     private static final Map<SocketChannel,Connection> channels = new HashMap<SocketChannel,Connection>();
     private static final Set<Connection> opening = new HashSet<Connection>();
@@ -237,14 +250,8 @@ public final class Network {
     }
 
     public static void onConfigLoad(Context ctx) {
-        //boolean restart = state == State.RUNNING;
-        //if (restart) Network.stop(ctx);
-        try {
-            listenAddress = makeInetSocketAddress(getListenAddress(), "0.0.0.0", Global.DEFAULT_PLUGIN_PORT, true);
-        } catch (IllegalArgumentException e) {
-            ctx.warn("listenAddress: %s", e.getMessage());
-        }
-        key = getKey();
+        updateListenAddress(ctx);
+        updateKey(ctx);
         selectInterval = getSelectInterval();
         readBufferSize = getReadBufferSize();
 
@@ -259,7 +266,69 @@ public final class Network {
                     ctx.warn("ignored invalid bannedAddress pattern '%s': %s", addressPattern, pse.getMessage());
                 }
             }
-        //if (restart) Network.start(ctx);
+    }
+
+    // called from main thread
+    private static void applyOption(Context ctx, String name) {
+        if (name.equals("readBufferSize"))
+            readBufferSize = getReadBufferSize();
+        else if (name.equals("selectInterval")) {
+            selectInterval = getSelectInterval();
+            if (selector != null)
+                selector.wakeup();
+        } else if (name.equals("clusterName")) {
+            for (Server server : Servers.getAll())
+                server.sendRefreshData();
+        } else if (name.equals("listenAddress")) {
+            updateListenAddress(ctx);
+            startIfReady(ctx);
+        } else if (name.equals("key")) {
+            updateKey(ctx);
+            if (key == null)
+                stop(ctx);
+            else
+                startIfReady(ctx);
+        }
+    }
+
+    private static void updateListenAddress(Context ctx) {
+        InetSocketAddress address;
+        try {
+            address = makeInetSocketAddress(getListenAddress(), "0.0.0.0", Global.DEFAULT_PLUGIN_PORT, true);
+        } catch (IllegalArgumentException e) {
+            ctx.warn("listenAddress: %s", e.getMessage());
+            return;
+        }
+        if ((state == ThreadState.RUNNING) && (selector != null)) {
+            if (address.equals(listenAddress)) return;
+            // the network thread opens the new socket before closing the old one
+            pendingListenAddressSetting = getListenAddress();
+            pendingListenAddress = address;
+            selector.wakeup();
+        } else {
+            listenAddressSetting = getListenAddress();
+            listenAddress = address;
+        }
+    }
+
+    private static void updateKey(Context ctx) {
+        String newKey = getKey();
+        if ((key != null) && (newKey != null) && (! key.equals(newKey)) && (state == ThreadState.RUNNING)) {
+            // keep accepting the old key until peers have been updated
+            previousKey = key;
+            previousKeyExpiration = System.currentTimeMillis() + getKeyRolloverWindow();
+            ctx.send("previous key will be accepted for %d seconds", getKeyRolloverWindow() / 1000);
+        } else if (newKey == null)
+            previousKey = null;
+        key = newKey;
+    }
+
+    // called from main thread
+    private static void startIfReady(Context ctx) {
+        if ((networkThread != null) && networkThread.isAlive()) return;
+        if ((listenAddress == null) || (key == null)) return;
+        start(ctx);
+        Servers.connectAll();
     }
 
     public static void onConfigSave() {
@@ -328,7 +397,7 @@ public final class Network {
     }
 
     public static int getReconnectInterval() {
-        return Config.getIntDirect("network.reconnectInterval", 60000);
+        return Config.getSettings().reconnectInterval;
     }
 
     public static void setReconnectInterval(int i) {
@@ -338,7 +407,7 @@ public final class Network {
     }
 
     public static int getReconnectSkew() {
-        return Config.getIntDirect("network.reconnectSkew", 10000);
+        return Config.getSettings().reconnectSkew;
     }
 
     public static void setReconnectSkew(int i) {
@@ -365,8 +434,18 @@ public final class Network {
         Config.setPropertyDirect("network.key", s);
     }
 
+    public static int getKeyRolloverWindow() {
+        return Config.getIntDirect("network.keyRolloverWindow", 300000);
+    }
+
+    public static void setKeyRolloverWindow(int i) {
+        if (i < 0)
+            throw new IllegalArgumentException("keyRolloverWindow must be at least 0");
+        Config.setPropertyDirect("network.keyRolloverWindow", i);
+    }
+
     public static int getSuppressConnectionAttempts() {
-        return Config.getIntDirect("network.suppressConnectionAttempts", -1);
+        return Config.getSettings().suppressConnectionAttempts;
     }
 
     public static void setSuppressConnectionAttempts(int i) {
@@ -391,6 +470,17 @@ public final class Network {
         return key;
     }
 
+    // returns the current key followed by the previous key while it's still accepted
+    public static List<String> getAcceptedKeys() {
+        List<String> keys = new ArrayList<String>(2);
+        String k = key;
+        if (k != null) keys.add(k);
+        k = previousKey;
+        if ((k != null) && (System.currentTimeMillis() < previousKeyExpiration))
+            keys.add(k);
+        return keys;
+    }
+
     public static boolean isStopped() {
         return (state == ThreadState.STOP) || (state == ThreadState.STOPPING) || (state == ThreadState.STOPPED);
     }
@@ -451,12 +541,9 @@ public final class Network {
         try {
             // create the selector
             selector = Selector.open();
-            serverChannel = ServerSocketChannel.open();
-            serverChannel.configureBlocking(false);
 
             // bind to address and port
-            serverChannel.socket().bind(listenAddress);
-            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            serverChannel = openListener(listenAddress);
 
             Utils.info("network manager listening on %s:%d", listenAddress.getAddress().getHostAddress(), listenAddress.getPort());
             state = ThreadState.RUNNING;
@@ -465,7 +552,8 @@ public final class Network {
             while (true) {
                 if (state == ThreadState.STOP) {
                     state = ThreadState.STOPPING;
-                    serverChannel.keyFor(selector).cancel();
+                    if (serverChannel != null)
+                        serverChannel.keyFor(selector).cancel();
                     synchronized (closing) {
                         closing.addAll(channels.values());
                         for (Connection conn : closing)
@@ -511,6 +599,19 @@ public final class Network {
                     }
                 }
 
+                // Move the listening socket if the address changed
+                InetSocketAddress newAddress = pendingListenAddress;
+                if ((newAddress != null) && (state == ThreadState.RUNNING)) {
+                    pendingListenAddress = null;
+                    serverChannel = rebind(serverChannel, newAddress, pendingListenAddressSetting);
+                } else if ((serverChannel == null) && (state == ThreadState.RUNNING) &&
+                           (System.currentTimeMillis() >= relistenTime))
+                    serverChannel = relisten();
+
+                // Close connections still using a retired key
+                if ((previousKey != null) && (System.currentTimeMillis() >= previousKeyExpiration))
+                    retireKey();
+
                 // Tell connected servers to do keep alives
                 for (Server server : Servers.getAll()) {
                     server.sendKeepAlive();
@@ -547,7 +648,91 @@ public final class Network {
             try {
                 serverChannel.close();
             } catch (IOException ioe) {}
+        readBuffer = null;
+
+    }
+
+    // called from selection thread
+    private static ServerSocketChannel openListener(InetSocketAddress address) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().bind(address);
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ioe) {}
+            throw e;
+        }
+        return channel;
+    }
 
+    // called from selection thread
+    private static void closeListener(ServerSocketChannel channel) {
+        if (channel == null) return;
+        SelectionKey selKey = channel.keyFor(selector);
+        if (selKey != null)
+            selKey.cancel();
+        try {
+            channel.close();
+        } catch (IOException ioe) {}
+    }
+
+    // called from selection thread
+    private static ServerSocketChannel rebind(ServerSocketChannel oldChannel, InetSocketAddress address, String setting) {
+        ServerSocketChannel newChannel;
+        try {
+            newChannel = openListener(address);
+            closeListener(oldChannel);
+        } catch (IOException e) {
+            // the new address might overlap the old one, so let go of it first
+            closeListener(oldChannel);
+            try {
+                newChannel = openListener(address);
+            } catch (IOException ioe) {
+                Utils.warning("unable to listen on %s:%d: %s", address.getAddress().getHostAddress(), address.getPort(), ioe.getMessage());
+                // put the option back to the address we're still using
+                final String activeSetting = listenAddressSetting;
+                Utils.fire(new Runnable() {
+                    public void run() {
+                        Config.setPropertyDirect("network.listenAddress", activeSetting);
+                    }
+                });
+                Utils.warning("listenAddress has been reset to '%s'", (activeSetting == null) ? "" : activeSetting);
+                relistenTime = 0;
+                return relisten();
+            }
+        }
+        listenAddress = address;
+        listenAddressSetting = setting;
+        Utils.info("network manager listening on %s:%d", listenAddress.getAddress().getHostAddress(), listenAddress.getPort());
+        return newChannel;
+    }
+
+    // called from selection thread
+    private static ServerSocketChannel relisten() {
+        try {
+            ServerSocketChannel channel = openListener(listenAddress);
+            Utils.info("network manager listening on %s:%d", listenAddress.getAddress().getHostAddress(), listenAddress.getPort());
+            return channel;
+        } catch (IOException ioe) {
+            Utils.severe("unable to listen on %s:%d, will retry in %d seconds: %s", listenAddress.getAddress().getHostAddress(), listenAddress.getPort(), RELISTEN_INTERVAL / 1000, ioe.getMessage());
+            relistenTime = System.currentTimeMillis() + RELISTEN_INTERVAL;
+            return null;
+        }
+    }
+
+    // called from selection thread
+    private static void retireKey() {
+        String retired = previousKey;
+        previousKey = null;
+        if (retired == null) return;
+        for (Connection conn : new ArrayList<Connection>(channels.values())) {
+            if (! retired.equals(conn.getLocalKey())) continue;
+            Utils.info("closing connection with %s because it is using a retired key", conn);
+            conn.close();
+        }
     }
 
     // called from selection thread
@@ -633,7 +818,12 @@ public final class Network {
             return;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+        // readBufferSize can change at any time, so resize the buffer on demand
+        int size = readBufferSize;
+        if ((readBuffer == null) || (readBuffer.capacity() != size))
+            readBuffer = ByteBuffer.allocate(size);
+        ByteBuffer buffer = readBuffer;
+        buffer.clear();
         int numRead = 0;
         while (true) {
             try {
@@ -644,8 +834,9 @@ public final class Network {
             }
             Utils.debug("read %d from %s", numRead, conn);
             if (numRead <= 0) break;
+            conn.getStats().onBytesRead(numRead);
             conn.onReadData(Arrays.copyOfRange(buffer.array(), 0, numRead));
-            if (numRead < readBufferSize) break;
+            if (numRead < size) break;
             buffer.clear();
         }
         if (numRead == -1) {
@@ -679,6 +870,7 @@ public final class Network {
                 return;
             }
             Utils.debug("wrote %d to %s", numWrote, conn);
+            conn.getStats().onBytesWritten(numWrote);
             if (numWrote == data.length) continue;
             conn.onPutWriteData(Arrays.copyOfRange(data, numWrote, data.length - 1));
             break;
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+/**
+ * Sent when a player moves to a different world.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class PlayerChangeWorldMessage extends Message {
+
+    private String player;
+    private String world;
+    private String prefix;
+    private String suffix;
+
+    PlayerChangeWorldMessage() {
+        super("playerChangeWorld");
+    }
+
+    public PlayerChangeWorldMessage(String player, String world, String prefix, String suffix) {
+        this();
+        this.player = player;
+        this.world = world;
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    @Override
+    protected int getFieldCount() {
+        return 4;
+    }
+
+    @Override
+    protected void writeFields(MessageWriter writer) {
+        writer.put("player", player);
+        writer.put("world", world);
+        writer.put("prefix", prefix);
+        writer.put("suffix", suffix);
+    }
+
+    @Override
+    protected boolean readField(String key, MessageReader reader) {
+        if (key.equals("player")) player = reader.readString();
+        else if (key.equals("world")) world = reader.readString();
+        else if (key.equals("prefix")) prefix = reader.readString();
+        else if (key.equals("suffix")) suffix = reader.readString();
+        else return false;
+        return true;
+    }
+
+}
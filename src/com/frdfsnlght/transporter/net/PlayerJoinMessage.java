@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+/**
+ * Sent when a player joins a server.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class PlayerJoinMessage extends Message {
+
+    private String name;
+    private String displayName;
+    private String world;
+    private boolean hasReservation;
+    private String prefix;
+    private String suffix;
+
+    PlayerJoinMessage() {
+        super("playerJoin");
+    }
+
+    public PlayerJoinMessage(String name, String displayName, String world, boolean hasReservation, String prefix, String suffix) {
+        this();
+        this.name = name;
+        this.displayName = displayName;
+        this.world = world;
+        this.hasReservation = hasReservation;
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public boolean hasReservation() {
+        return hasReservation;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    @Override
+    protected int getFieldCount() {
+        return 6;
+    }
+
+    @Override
+    protected void writeFields(MessageWriter writer) {
+        writer.put("name", name);
+        writer.put("displayName", displayName);
+        writer.put("world", world);
+        writer.put("hasReservation", hasReservation);
+        writer.put("prefix", prefix);
+        writer.put("suffix", suffix);
+    }
+
+    @Override
+    protected boolean readField(String key, MessageReader reader) {
+        if (key.equals("name")) name = reader.readString();
+        else if (key.equals("displayName")) displayName = reader.readString();
+        else if (key.equals("world")) world = reader.readString();
+        else if (key.equals("hasReservation")) hasReservation = reader.readBoolean(false);
+        else if (key.equals("prefix")) prefix = reader.readString();
+        else if (key.equals("suffix")) suffix = reader.readString();
+        else return false;
+        return true;
+    }
+
+}
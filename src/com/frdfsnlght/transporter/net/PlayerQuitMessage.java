@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.net;
+
+/**
+ * Sent when a player quits or is kicked from a server.
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public final class PlayerQuitMessage extends Message {
+
+    private String name;
+    private boolean hasReservation;
+
+    PlayerQuitMessage(String command) {
+        super(command);
+    }
+
+    // command is either "playerQuit" or "playerKick"
+    public PlayerQuitMessage(String command, String name, boolean hasReservation) {
+        this(command);
+        this.name = name;
+        this.hasReservation = hasReservation;
+    }
+
+    public boolean isKick() {
+        return getCommand().equals("playerKick");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean hasReservation() {
+        return hasReservation;
+    }
+
+    @Override
+    protected int getFieldCount() {
+        return 2;
+    }
+
+    @Override
+    protected void writeFields(MessageWriter writer) {
+        writer.put("name", name);
+        writer.put("hasReservation", hasReservation);
+    }
+
+    @Override
+    protected boolean readField(String key, MessageReader reader) {
+        if (key.equals("name")) name = reader.readString();
+        else if (key.equals("hasReservation")) hasReservation = reader.readBoolean(false);
+        else return false;
+        return true;
+    }
+
+}
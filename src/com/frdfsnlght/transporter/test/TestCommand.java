@@ -18,7 +18,10 @@ package com.frdfsnlght.transporter.test;
 import java.util.ArrayList;
 import java.util.List;
 import com.frdfsnlght.transporter.Context;
+import com.frdfsnlght.transporter.GateImpl;
+import com.frdfsnlght.transporter.Gates;
 import com.frdfsnlght.transporter.Global;
+import com.frdfsnlght.transporter.LocalGateImpl;
 import com.frdfsnlght.transporter.api.API;
 import com.frdfsnlght.transporter.api.Callback;
 import com.frdfsnlght.transporter.api.RemoteException;
@@ -52,6 +55,7 @@ public class TestCommand extends TrpCommandProcessor {
         cmds.add(getPrefix(ctx) + GROUP + "die");
         cmds.add(getPrefix(ctx) + GROUP + "potion");
         cmds.add(getPrefix(ctx) + GROUP + "api");
+        cmds.add(getPrefix(ctx) + GROUP + "chat <gate>");
         return cmds;
     }
 
@@ -145,7 +149,47 @@ public class TestCommand extends TrpCommandProcessor {
             return;
         }
 
+        if ("chat".startsWith(subCmd)) {
+            if (args.isEmpty())
+                throw new CommandException("gate name required");
+            GateImpl g = Gates.find(ctx, args.remove(0));
+            if (! (g instanceof LocalGateImpl))
+                throw new CommandException("unknown or ambiguous local gate");
+            LocalGateImpl gate = (LocalGateImpl)g;
+            boolean receiveChat = gate.getReceiveChat();
+            int receiveChatDistance = gate.getReceiveChatDistance();
+
+            gate.setReceiveChat(false);
+            int base = Gates.getRangedChatReceiverCount();
+            checkChatReceivers(ctx, "receiveChat off", base);
+            gate.setReceiveChatDistance(0);
+            gate.setReceiveChat(true);
+            checkChatReceivers(ctx, "unlimited distance", base);
+            gate.setReceiveChatDistance(10);
+            checkChatReceivers(ctx, "limited distance", base + 1);
+            gate.setReceiveChatDistance(20);
+            checkChatReceivers(ctx, "distance changed", base + 1);
+            gate.setReceiveChat(false);
+            checkChatReceivers(ctx, "receiveChat off again", base);
+
+            gate.setReceiveChatDistance(receiveChatDistance);
+            gate.setReceiveChat(receiveChat);
+            checkChatReceivers(ctx, "restored", Gates.getRangedChatReceiverCount());
+            return;
+        }
+
         throw new CommandException("test what?");
     }
 
+    private void checkChatReceivers(Context ctx, String step, int expected) {
+        int count = Gates.getRangedChatReceiverCount();
+        int scanned = 0;
+        for (LocalGateImpl lg : Gates.getLocalGates())
+            if (lg.getReceiveChat() && (lg.getReceiveChatDistance() > 0)) scanned++;
+        if ((count == expected) && (count == scanned))
+            ctx.send("%s: OK, %d ranged chat receivers", step, count);
+        else
+            ctx.send("%s: FAILED, counted %d, expected %d, found %d", step, count, expected, scanned);
+    }
+
 }
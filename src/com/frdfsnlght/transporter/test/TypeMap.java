@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 frdfsnlght <frdfsnlght@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.frdfsnlght.transporter.test;
+
+import java.util.Map;
+
+/**
+ *
+ * @author frdfsnlght <frdfsnlght@gmail.com>
+ */
+public class TypeMap {
+
+    public static void main(String[] args) {
+
+        testFrozenEntries();
+        testFreezeCopy();
+
+    }
+
+    private static void testFrozenEntries() {
+        com.frdfsnlght.transporter.api.TypeMap map = new com.frdfsnlght.transporter.api.TypeMap();
+        map.put("a", "one");
+        map.freeze();
+        Map.Entry<String,Object> entry = map.entrySet().iterator().next();
+        try {
+            entry.setValue("two");
+            System.out.println("FAIL: setValue on a frozen entry succeeded, a=" + map.get("a"));
+        } catch (UnsupportedOperationException e) {
+            System.out.println("OK: setValue on a frozen entry throws, a=" + map.get("a"));
+        }
+    }
+
+    private static void testFreezeCopy() {
+        com.frdfsnlght.transporter.api.TypeMap map = new com.frdfsnlght.transporter.api.TypeMap();
+        map.put("a", "one");
+        com.frdfsnlght.transporter.api.TypeMap copy = map.clone().freeze();
+        map.put("a", "two");
+        System.out.println((map.isFrozen() || (! "one".equals(copy.get("a")))) ?
+                "FAIL: freezing a copy touched the original" :
+                "OK: freezing a copy leaves the original alone");
+    }
+
+}